@@ -0,0 +1,110 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar and SIMD intersection kernels.
+ *
+ * <p>Run with {@code gradle jmh}. {@code VectorKernelsTest} checks that both
+ * kernels give bitwise identical results.
+ */
+@State(Scope.Thread)
+public class KernelBenchmark {
+  /** Rays per batch, like one row of the render target. */
+  @Param({ "400", "1920" })
+  public int rays;
+
+  /** Quads per batch: a bounding volume hierarchy leaf, or a small model. */
+  @Param({ "4", "16" })
+  public int quads;
+
+  private double[] ox, oy, oz, dx, dy, dz, near, far;
+  private PackedQuads packed;
+  private double[] t, u, v;
+  private int ray = 0;
+
+  @Setup public void setup() {
+    Random random = new Random(0);
+    ox = new double[rays];
+    oy = new double[rays];
+    oz = new double[rays];
+    dx = new double[rays];
+    dy = new double[rays];
+    dz = new double[rays];
+    near = new double[rays];
+    far = new double[rays];
+    for (int i = 0; i < rays; ++i) {
+      // Rays from a camera position outside the block, some axis aligned.
+      ox[i] = .5 + 2 * random.nextGaussian();
+      oy[i] = .5 + 2 * random.nextGaussian();
+      oz[i] = .5 + 2 * random.nextGaussian();
+      double x = random.nextDouble() - ox[i];
+      double y = i % 17 == 0 ? 0 : random.nextDouble() - oy[i];
+      double z = random.nextDouble() - oz[i];
+      double length = Math.sqrt(x * x + y * y + z * z);
+      dx[i] = x / length;
+      dy[i] = y / length;
+      dz[i] = z / length;
+    }
+
+    packed = new PackedQuads(quads);
+    for (int i = 0; i < quads; ++i) {
+      Vector3 c0 = new Vector3(random.nextDouble(), random.nextDouble(), random.nextDouble());
+      Vector3 c1 = new Vector3(c0.x + .5, c0.y, c0.z);
+      Vector3 c2 = new Vector3(c0.x, c0.y + .5 * random.nextDouble(), c0.z - .5);
+      packed.set(i, c0, c1, c2, new Vector4(0, 1, 0, 1));
+    }
+    t = new double[quads];
+    u = new double[quads];
+    v = new double[quads];
+  }
+
+  @Benchmark public double unitBoxScalar() {
+    ScalarKernels.unitBox(ox, oy, oz, dx, dy, dz, near, far, 0, rays);
+    return near[0];
+  }
+
+  @Benchmark public double unitBoxVector() {
+    VectorKernels.unitBox(ox, oy, oz, dx, dy, dz, near, far, rays);
+    return near[0];
+  }
+
+  @Benchmark public double quadsScalar() {
+    int i = nextRay();
+    ScalarKernels.quads(packed, 0, 0, quads, ox[i], oy[i], oz[i], dx[i], dy[i], dz[i], t, u, v);
+    return t[0];
+  }
+
+  @Benchmark public double quadsVector() {
+    int i = nextRay();
+    VectorKernels.quads(packed, 0, quads, ox[i], oy[i], oz[i], dx[i], dy[i], dz[i], t, u, v);
+    return t[0];
+  }
+
+  private int nextRay() {
+    ray = ray + 1 < rays ? ray + 1 : 0;
+    return ray;
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.math.Ray;
+
+import java.util.Random;
+
+/**
+ * Compares bounding volume hierarchy traversal against brute-force quad
+ * testing for JSON block models from the Minecraft jar.
+ *
+ * <p>Run with {@code gradle jmh}. Both methods are timed directly, so the
+ * small model shortcut in {@link BlockModel#intersect} does not apply. The
+ * setup checks that both methods find the same hit distance, normal and
+ * color for every benchmark ray before anything is timed.
+ */
+@State(Scope.Thread)
+public class ModelBenchmark {
+  private static final int RAYS = 4096;
+
+  @Param({
+      "block/cube_all",
+      "block/anvil_undamaged",
+      "block/cauldron_level3",
+      "block/hopper_down",
+      "block/brewing_stand",
+      "block/repeater_4tick",
+  })
+  public String model;
+
+  private BlockModel blockModel;
+  private final double[] origins = new double[3 * RAYS];
+  private final double[] directions = new double[3 * RAYS];
+  private final BlockModel.Scratch scratch = new BlockModel.Scratch();
+  private final TraceStats stats = new TraceStats();
+  private final Ray ray = new Ray();
+  private int next = 0;
+
+  @Setup public void setup() throws Exception {
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+    blockModel = BlockModelLoader.getDefault().load(model);
+
+    // Rays from points around the block aimed at random points inside it.
+    Random random = new Random(0);
+    for (int i = 0; i < RAYS; ++i) {
+      double theta = 2 * Math.PI * random.nextDouble();
+      double z = 2 * random.nextDouble() - 1;
+      double r = Math.sqrt(1 - z * z);
+      double ox = .5 + 2 * r * Math.cos(theta);
+      double oy = .5 + 2 * z;
+      double oz = .5 + 2 * r * Math.sin(theta);
+      double dx = random.nextDouble() - ox;
+      double dy = random.nextDouble() - oy;
+      double dz = random.nextDouble() - oz;
+      double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      origins[3 * i] = ox;
+      origins[3 * i + 1] = oy;
+      origins[3 * i + 2] = oz;
+      directions[3 * i] = dx / length;
+      directions[3 * i + 1] = dy / length;
+      directions[3 * i + 2] = dz / length;
+    }
+
+    crossCheck();
+  }
+
+  private void crossCheck() {
+    Ray bruteRay = new Ray();
+    for (int i = 0; i < RAYS; ++i) {
+      setRay(ray, i);
+      setRay(bruteRay, i);
+      boolean bvhHit = blockModel.intersectBvh(ray, scratch, stats);
+      boolean bruteHit = blockModel.intersectBruteForce(bruteRay, scratch, stats);
+      boolean same = bvhHit == bruteHit;
+      if (same && bvhHit) {
+        same = ray.t == bruteRay.t
+            && ray.n.x == bruteRay.n.x && ray.n.y == bruteRay.n.y && ray.n.z == bruteRay.n.z
+            && ray.color.x == bruteRay.color.x && ray.color.y == bruteRay.color.y
+            && ray.color.z == bruteRay.color.z && ray.color.w == bruteRay.color.w;
+      }
+      if (!same) {
+        throw new IllegalStateException(String.format(
+            "Mismatch for model %s, ray %d: bvh=%s (t=%s, n=%s, color=%s), "
+                + "brute force=%s (t=%s, n=%s, color=%s)", model, i,
+            bvhHit, ray.t, ray.n, ray.color, bruteHit, bruteRay.t, bruteRay.n, bruteRay.color));
+      }
+    }
+  }
+
+  @Benchmark public double bvh() {
+    setRay(ray, nextRay());
+    blockModel.intersectBvh(ray, scratch, stats);
+    return ray.t;
+  }
+
+  @Benchmark public double bruteForce() {
+    setRay(ray, nextRay());
+    blockModel.intersectBruteForce(ray, scratch, stats);
+    return ray.t;
+  }
+
+  private int nextRay() {
+    next = next + 1 < RAYS ? next + 1 : 0;
+    return next;
+  }
+
+  private void setRay(Ray ray, int i) {
+    ray.setDefault();
+    ray.o.set(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2]);
+    ray.d.set(directions[3 * i], directions[3 * i + 1], directions[3 * i + 2]);
+  }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.world.Block;
+import se.llbit.math.Ray;
+
+/**
+ * Renders the selected block with its built-in Chunky block model.
+ */
+public class BlockMode implements RenderMode {
+  @Override public String getName() {
+    return "block";
+  }
+
+  @Override public RenderKernel createKernel(FrameContext frame) {
+    return new Kernel(frame.getBlock(), frame.getMaterial(), frame.getScene(), frame.stats);
+  }
+
+  /**
+   * Move the ray to where it enters the center block and set the block as
+   * its current material.
+   *
+   * @return {@code false} if the ray misses the center block
+   */
+  static boolean enter(Ray ray, double tNear, double tFar, Block block, int material) {
+    if (tNear <= tFar && tFar >= 0) {
+      if (tNear > 0) {
+        ray.o.scaleAdd(tNear, ray.d);
+        ray.distance += tNear;
+      }
+
+      ray.setPrevMaterial(Block.AIR, 0);
+      ray.setCurrentMaterial(block, material);
+      return true;
+    }
+    return false;
+  }
+
+  private static final class Kernel implements RenderKernel {
+    private final Block block;
+    private final int material;
+    private final Scene scene;
+    private final TraceStats stats;
+
+    Kernel(Block block, int material, Scene scene, TraceStats stats) {
+      this.block = block;
+      this.material = material;
+      this.scene = scene;
+      this.stats = stats;
+    }
+
+    @Override public boolean trace(Ray ray, double tNear, double tFar) {
+      if (enter(ray, tNear, tFar, block, material)) {
+        if (TraceStats.ENABLED) {
+          stats.blockIntersects += 1;
+        }
+        return block.intersect(ray, scene);
+      }
+      return false;
+    }
+
+    @Override public void traceRow(RayRow row) {
+      row.traceEach(this);
+    }
+  }
+}
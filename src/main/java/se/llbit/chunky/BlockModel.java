@@ -0,0 +1,320 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.Texture;
+import se.llbit.math.Ray;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A block model compiled to textured quads, with a bounding volume
+ * hierarchy over the quads.
+ *
+ * <p>The hierarchy is stored in flat arrays. Interior nodes have their left
+ * child at the next index and store the index of their right child. Leaf
+ * nodes store a range of quads. Quads are reordered so that each leaf
+ * references a contiguous range. Quads are tested with
+ * {@link RayKernels#quads}, a whole leaf at a time.
+ *
+ * <p>Compiled models are immutable and may be shared between threads. Each
+ * thread passes its own {@link Scratch} buffers to the intersection methods.
+ */
+class BlockModel {
+  /** Leaf size, one vector of doubles on AVX2 hardware. */
+  private static final int MAX_LEAF_SIZE = 4;
+
+  /**
+   * Models with at most this many quads are intersected by testing every
+   * quad, in a single kernel call. For models this small, traversing the
+   * hierarchy costs more than it saves.
+   */
+  private static final int SMALL_MODEL = 16;
+
+  /** Maximum tree depth. Bounds the traversal stack size. */
+  private static final int MAX_DEPTH = 32;
+
+  /** Number of quads tested per kernel call in brute force mode. */
+  private static final int BATCH = SMALL_MODEL;
+
+  /**
+   * Per-thread scratch space for model intersection, so that no arrays are
+   * allocated per ray.
+   */
+  static final class Scratch {
+    final double[] t = new double[BATCH];
+    final double[] u = new double[BATCH];
+    final double[] v = new double[BATCH];
+    final int[] stack = new int[MAX_DEPTH + 1];
+
+    /** Original index of the closest quad hit so far, or -1. */
+    int hitQuad;
+  }
+
+  final String name;
+  final PackedQuads quads;
+  final Texture[] textures;
+
+  /** Node bounds: minX, minY, minZ, maxX, maxY, maxZ per node. */
+  private final double[] bounds;
+
+  /** Right child index for interior nodes, or -1 for leaf nodes. */
+  private final int[] rightChild;
+
+  /** Split axis for interior nodes, first quad index for leaf nodes. */
+  private final int[] axisOrFirst;
+
+  /** Quad count for leaf nodes. */
+  private final int[] count;
+
+  /**
+   * Index of each quad in the model as loaded. Quads are stored in tree
+   * order; the original index breaks ties between quads hit at the same
+   * distance.
+   */
+  private final int[] source;
+
+  private int numNodes = 0;
+
+  BlockModel(String name, PackedQuads quads, Texture[] textures) {
+    this.name = name;
+    int maxNodes = Math.max(1, 2 * quads.size);
+    bounds = new double[6 * maxNodes];
+    rightChild = new int[maxNodes];
+    axisOrFirst = new int[maxNodes];
+    count = new int[maxNodes];
+
+    Integer[] order = new Integer[quads.size];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    double[] quadBounds = new double[6 * quads.size];
+    for (int i = 0; i < quads.size; ++i) {
+      quadBounds(quads, i, quadBounds, 6 * i);
+    }
+    build(order, 0, quads.size, quadBounds, 0);
+
+    this.quads = new PackedQuads(quads.size);
+    this.textures = new Texture[quads.size];
+    source = new int[quads.size];
+    for (int i = 0; i < order.length; ++i) {
+      this.quads.copy(i, quads, order[i]);
+      this.textures[i] = textures[order[i]];
+      source[i] = order[i];
+    }
+  }
+
+  /** The number of quads in this model. */
+  int size() {
+    return quads.size;
+  }
+
+  private int build(Integer[] order, int start, int end, double[] quadBounds, int depth) {
+    int node = numNodes++;
+    int offset = 6 * node;
+    bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = Double.POSITIVE_INFINITY;
+    bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = Double.NEGATIVE_INFINITY;
+    for (int i = start; i < end; ++i) {
+      int q = 6 * order[i];
+      for (int axis = 0; axis < 3; ++axis) {
+        bounds[offset + axis] = Math.min(bounds[offset + axis], quadBounds[q + axis]);
+        bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], quadBounds[q + 3 + axis]);
+      }
+    }
+    if (end - start <= MAX_LEAF_SIZE || depth >= MAX_DEPTH - 1) {
+      rightChild[node] = -1;
+      axisOrFirst[node] = start;
+      count[node] = end - start;
+      return node;
+    }
+
+    // Median split along the longest axis of the node bounds.
+    int axis = 0;
+    double extent = bounds[offset + 3] - bounds[offset];
+    for (int i = 1; i < 3; ++i) {
+      double e = bounds[offset + 3 + i] - bounds[offset + i];
+      if (e > extent) {
+        extent = e;
+        axis = i;
+      }
+    }
+    int splitAxis = axis;
+    Arrays.sort(order, start, end, Comparator.comparingDouble(
+        q -> quadBounds[6 * q + splitAxis] + quadBounds[6 * q + 3 + splitAxis]));
+    int mid = (start + end) / 2;
+    build(order, start, mid, quadBounds, depth + 1);
+    rightChild[node] = build(order, mid, end, quadBounds, depth + 1);
+    axisOrFirst[node] = axis;
+    return node;
+  }
+
+  private static void quadBounds(PackedQuads q, int i, double[] out, int offset) {
+    double[] xs = { q.ox[i], q.ox[i] + q.xvx[i], q.ox[i] + q.yvx[i],
+        q.ox[i] + q.xvx[i] + q.yvx[i] };
+    double[] ys = { q.oy[i], q.oy[i] + q.xvy[i], q.oy[i] + q.yvy[i],
+        q.oy[i] + q.xvy[i] + q.yvy[i] };
+    double[] zs = { q.oz[i], q.oz[i] + q.xvz[i], q.oz[i] + q.yvz[i],
+        q.oz[i] + q.xvz[i] + q.yvz[i] };
+    out[offset] = Math.min(Math.min(xs[0], xs[1]), Math.min(xs[2], xs[3])) - Ray.EPSILON;
+    out[offset + 1] = Math.min(Math.min(ys[0], ys[1]), Math.min(ys[2], ys[3])) - Ray.EPSILON;
+    out[offset + 2] = Math.min(Math.min(zs[0], zs[1]), Math.min(zs[2], zs[3])) - Ray.EPSILON;
+    out[offset + 3] = Math.max(Math.max(xs[0], xs[1]), Math.max(xs[2], xs[3])) + Ray.EPSILON;
+    out[offset + 4] = Math.max(Math.max(ys[0], ys[1]), Math.max(ys[2], ys[3])) + Ray.EPSILON;
+    out[offset + 5] = Math.max(Math.max(zs[0], zs[1]), Math.max(zs[2], zs[3])) + Ray.EPSILON;
+  }
+
+  /**
+   * Find the closest non-transparent quad hit by the ray. Small models are
+   * tested quad by quad, larger models use the bounding volume hierarchy.
+   * Of several quads hit at the same distance, such as coplanar faces, the
+   * one that comes first in the model wins.
+   */
+  boolean intersect(Ray ray, Scratch scratch, TraceStats stats) {
+    if (quads.size <= SMALL_MODEL) {
+      return intersectBruteForce(ray, scratch, stats);
+    }
+    return intersectBvh(ray, scratch, stats);
+  }
+
+  /**
+   * Find the closest non-transparent quad hit by the ray, using the bounding
+   * volume hierarchy regardless of the model size.
+   */
+  boolean intersectBvh(Ray ray, Scratch scratch, TraceStats stats) {
+    ray.t = Double.POSITIVE_INFINITY;
+    scratch.hitQuad = -1;
+    double ox = ray.o.x;
+    double oy = ray.o.y;
+    double oz = ray.o.z;
+    double invDx = 1 / ray.d.x;
+    double invDy = 1 / ray.d.y;
+    double invDz = 1 / ray.d.z;
+    boolean hit = false;
+    int[] stack = scratch.stack;
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (TraceStats.ENABLED) {
+        stats.slabTests += 1;
+      }
+      int offset = 6 * node;
+      double t1 = (bounds[offset] - ox) * invDx;
+      double t2 = (bounds[offset + 3] - ox) * invDx;
+      double tNear = Math.min(t1, t2);
+      double tFar = Math.max(t1, t2);
+      t1 = (bounds[offset + 1] - oy) * invDy;
+      t2 = (bounds[offset + 4] - oy) * invDy;
+      tNear = Math.max(tNear, Math.min(t1, t2));
+      tFar = Math.min(tFar, Math.max(t1, t2));
+      t1 = (bounds[offset + 2] - oz) * invDz;
+      t2 = (bounds[offset + 5] - oz) * invDz;
+      tNear = Math.max(tNear, Math.min(t1, t2));
+      tFar = Math.min(tFar, Math.max(t1, t2));
+      // Negated so that NaN (zero direction component on a slab plane) rejects the node.
+      // Nodes entered at exactly ray.t are visited, they may hold a tied quad.
+      if (!(tNear <= tFar && tFar >= 0 && tNear <= ray.t)) {
+        continue;
+      }
+      if (rightChild[node] < 0) {
+        hit |= intersectQuads(ray, axisOrFirst[node], count[node], scratch, stats);
+      } else {
+        // Visit the child nearest to the ray origin first.
+        int left = node + 1;
+        int right = rightChild[node];
+        boolean leftFirst;
+        switch (axisOrFirst[node]) {
+          case 0:
+            leftFirst = ray.d.x >= 0;
+            break;
+          case 1:
+            leftFirst = ray.d.y >= 0;
+            break;
+          default:
+            leftFirst = ray.d.z >= 0;
+            break;
+        }
+        if (leftFirst) {
+          stack[top++] = right;
+          stack[top++] = left;
+        } else {
+          stack[top++] = left;
+          stack[top++] = right;
+        }
+      }
+    }
+    return finishHit(ray, hit);
+  }
+
+  /**
+   * Find the closest non-transparent quad hit by the ray by testing every quad.
+   * Gives the same result as {@link #intersectBvh}.
+   */
+  boolean intersectBruteForce(Ray ray, Scratch scratch, TraceStats stats) {
+    ray.t = Double.POSITIVE_INFINITY;
+    scratch.hitQuad = -1;
+    boolean hit = false;
+    for (int i = 0; i < quads.size; i += BATCH) {
+      hit |= intersectQuads(ray, i, Math.min(BATCH, quads.size - i), scratch, stats);
+    }
+    return finishHit(ray, hit);
+  }
+
+  /**
+   * Test the ray against a range of quads. The kernel finds the geometric
+   * hits, then the hits are alpha tested. A hit at the same distance as the
+   * closest hit so far replaces it if its quad comes first in the model, so
+   * ties do not depend on the order the quads are tested in.
+   */
+  private boolean intersectQuads(Ray ray, int first, int n, Scratch scratch,
+      TraceStats stats) {
+    double[] t = scratch.t;
+    double[] u = scratch.u;
+    double[] v = scratch.v;
+    if (TraceStats.ENABLED) {
+      stats.quadTests += n;
+    }
+    RayKernels.quads(quads, first, n, ray.o.x, ray.o.y, ray.o.z, ray.d.x, ray.d.y, ray.d.z,
+        t, u, v);
+    boolean hit = false;
+    for (int j = 0; j < n; ++j) {
+      int index = first + j;
+      // Misses are at infinity and never tie: hitQuad is -1 until a hit.
+      if (t[j] < ray.t || t[j] == ray.t && source[index] < scratch.hitQuad) {
+        if (TraceStats.ENABLED) {
+          stats.textureFetches += 1;
+        }
+        float[] color = textures[index].getColor(u[j], v[j]);
+        if (color[3] > Ray.EPSILON) {
+          ray.color.set(color[0], color[1], color[2], color[3]);
+          ray.n.set(quads.nx[index], quads.ny[index], quads.nz[index]);
+          ray.t = t[j];
+          scratch.hitQuad = source[index];
+          hit = true;
+        }
+      }
+    }
+    return hit;
+  }
+
+  private static boolean finishHit(Ray ray, boolean hit) {
+    if (hit) {
+      ray.distance += ray.t;
+      ray.o.scaleAdd(ray.t, ray.d);
+    }
+    return hit;
+  }
+}
@@ -0,0 +1,399 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.MinecraftFinder;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.chunky.resources.texturepack.SimpleTexture;
+import se.llbit.chunky.resources.texturepack.TextureLoader;
+import se.llbit.json.JsonArray;
+import se.llbit.json.JsonObject;
+import se.llbit.json.JsonParser;
+import se.llbit.json.JsonValue;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads block model JSON files from a texture pack and compiles them to
+ * {@link BlockModel}s.
+ *
+ * <p>Models are named like in the block state files, for example
+ * {@code block/anvil_undamaged}, and read from {@code assets/minecraft/models/}.
+ * Parent models and texture variables are resolved. Element rotations and
+ * face texture rotations are supported; tint indices, ambient occlusion
+ * and cull faces are ignored.
+ */
+class BlockModelLoader {
+  private static BlockModelLoader defaultLoader = null;
+
+  /** Minecraft jar, texture pack zip file, or unpacked texture pack directory. */
+  private final File pack;
+
+  private final Map<String, BlockModel> models = new HashMap<>();
+
+  /** Models that failed to load, so that they are not loaded again every frame. */
+  private final Map<String, IOException> failed = new HashMap<>();
+  private final Map<String, Texture> textures = new HashMap<>();
+
+  /** Model names accepted from remote clients. */
+  private static final Pattern NAME = Pattern.compile("[a-z0-9_/]*");
+
+  /** Face names, indexed like the face argument of {@link #faceCorners}. */
+  private static final String[] FACES = { "north", "south", "west", "east", "up", "down" };
+
+  BlockModelLoader(File pack) {
+    this.pack = pack;
+  }
+
+  /**
+   * @return a loader for the models in the Minecraft jar
+   */
+  static synchronized BlockModelLoader getDefault() {
+    if (defaultLoader == null) {
+      defaultLoader = new BlockModelLoader(MinecraftFinder.getMinecraftJar());
+    }
+    return defaultLoader;
+  }
+
+  /**
+   * Check a model name received from a remote client. The name becomes part
+   * of a path in the texture pack, so only lowercase letters, digits,
+   * underscores and slashes are allowed.
+   */
+  static boolean isValidName(String name) {
+    return NAME.matcher(name).matches();
+  }
+
+  /**
+   * Load and compile a block model. Compiled models are cached.
+   *
+   * @throws IOException if the model could not be read or is malformed, or
+   * if there is no Minecraft jar to load it from
+   */
+  synchronized BlockModel load(String name) throws IOException {
+    BlockModel model = models.get(name);
+    if (model == null) {
+      if (failed.containsKey(name)) {
+        throw failed.get(name);
+      }
+      try {
+        if (pack == null) {
+          throw new FileNotFoundException("Minecraft jar not found");
+        }
+        try {
+          model = compile(name);
+        } catch (RuntimeException e) {
+          // Values of the wrong JSON type fail in the array() and object() casts.
+          throw new IOException("Malformed model: " + e, e);
+        }
+      } catch (IOException e) {
+        System.err.println("Failed to load block model " + name + ": " + e.getMessage());
+        failed.put(name, e);
+        throw e;
+      }
+      models.put(name, model);
+    }
+    return model;
+  }
+
+  private BlockModel compile(String name) throws IOException {
+    // The model hierarchy, from the named model to the root parent.
+    List<JsonObject> hierarchy = new ArrayList<>();
+    String current = name;
+    while (!current.isEmpty()) {
+      if (hierarchy.size() > 32) {
+        throw new IOException("Model parent chain is too long: " + name);
+      }
+      JsonObject json = readModel(current);
+      hierarchy.add(json);
+      current = stripNamespace(json.get("parent").stringValue(""));
+      if (current.startsWith("builtin/")) {
+        break;
+      }
+    }
+
+    JsonArray elements = null;
+    for (JsonObject json : hierarchy) {
+      if (!json.get("elements").isUnknown()) {
+        elements = json.get("elements").array();
+        break;
+      }
+    }
+
+    List<Vector3[]> quadCorners = new ArrayList<>();
+    List<Vector4> quadUvs = new ArrayList<>();
+    List<String> texturePaths = new ArrayList<>();
+    if (elements != null) {
+      for (JsonValue value : elements.getElementList()) {
+        JsonObject element = value.object();
+        double[] from = vector(element.get("from"), 0);
+        double[] to = vector(element.get("to"), 16);
+        if (element.get("faces").isUnknown()) {
+          continue;
+        }
+        JsonObject faces = element.get("faces").object();
+        for (int face = 0; face < FACES.length; ++face) {
+          JsonValue faceValue = faces.get(FACES[face]);
+          if (faceValue.isUnknown()) {
+            continue;
+          }
+          JsonObject faceJson = faceValue.object();
+          String texture = resolveTexture(hierarchy, faceJson.get("texture").stringValue(""));
+          if (texture.isEmpty()) {
+            continue;
+          }
+          Vector4 uv = new Vector4();
+          quadCorners.add(buildQuad(face, from, to, faceJson, element.get("rotation"), uv));
+          quadUvs.add(uv);
+          texturePaths.add(texture);
+        }
+      }
+    }
+
+    Texture[] quadTextures = loadTextures(texturePaths);
+    PackedQuads quads = new PackedQuads(quadCorners.size());
+    for (int i = 0; i < quads.size; ++i) {
+      Vector3[] corners = quadCorners.get(i);
+      quads.set(i, corners[0], corners[1], corners[2], quadUvs.get(i));
+    }
+    return new BlockModel(name, quads, quadTextures);
+  }
+
+  private JsonObject readModel(String name) throws IOException {
+    String path = "assets/minecraft/models/" + name + ".json";
+    try {
+      if (pack.isDirectory()) {
+        try (InputStream in = new FileInputStream(new File(pack, path))) {
+          return new JsonParser(in).parse().object();
+        }
+      } else {
+        try (ZipFile zip = new ZipFile(pack)) {
+          ZipEntry entry = zip.getEntry(path);
+          if (entry == null) {
+            throw new FileNotFoundException("Model not found: " + path);
+          }
+          try (InputStream in = zip.getInputStream(entry)) {
+            return new JsonParser(in).parse().object();
+          }
+        }
+      }
+    } catch (JsonParser.SyntaxError e) {
+      throw new IOException("Syntax error in " + path + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Resolve a texture reference such as {@code #side} to a texture path,
+   * searching the textures of the model and its parents.
+   *
+   * @return the texture path, or an empty string if it could not be resolved
+   */
+  private static String resolveTexture(List<JsonObject> hierarchy, String texture) {
+    for (int i = 0; i < 16 && texture.startsWith("#"); ++i) {
+      String variable = texture.substring(1);
+      texture = "";
+      for (JsonObject json : hierarchy) {
+        JsonValue textures = json.get("textures");
+        if (!textures.isUnknown() && !textures.object().get(variable).isUnknown()) {
+          texture = textures.object().get(variable).stringValue("");
+          break;
+        }
+      }
+    }
+    return texture.startsWith("#") ? "" : stripNamespace(texture);
+  }
+
+  private static String stripNamespace(String name) {
+    return name.startsWith("minecraft:") ? name.substring("minecraft:".length()) : name;
+  }
+
+  private Texture[] loadTextures(List<String> paths) {
+    Map<String, TextureLoader> toLoad = new HashMap<>();
+    for (String path : paths) {
+      if (!textures.containsKey(path)) {
+        Texture texture = new Texture();
+        textures.put(path, texture);
+        toLoad.put(path, new SimpleTexture("assets/minecraft/textures/" + path, texture));
+      }
+    }
+    if (!toLoad.isEmpty()) {
+      TexturePackLoader.loadTextures(pack, toLoad.entrySet());
+    }
+    Texture[] result = new Texture[paths.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = textures.get(paths.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Build the quad for one face of a model element.
+   *
+   * @param face index into {@link #FACES}
+   * @param uvOut receives the texture coordinates (u0, u1, v0, v1)
+   * @return the quad corners v0, v1, v2, as passed to the Quad constructor
+   */
+  private static Vector3[] buildQuad(int face, double[] from, double[] to, JsonObject faceJson,
+      JsonValue rotation, Vector4 uvOut) {
+    // Corners in texture order: bottom left, bottom right, top right, top left.
+    Vector3[] corners = faceCorners(face, from[0] / 16, from[1] / 16, from[2] / 16,
+        to[0] / 16, to[1] / 16, to[2] / 16);
+    if (!rotation.isUnknown()) {
+      rotate(corners, rotation.object());
+    }
+    double[] uv = faceJson.get("uv").isUnknown()
+        ? defaultUv(face, from, to)
+        : vector4(faceJson.get("uv"));
+
+    // Texture rotation in steps of 90 degrees clockwise: rotate which corner
+    // holds the texture origin.
+    int steps = ((faceJson.get("rotation").intValue(0) / 90) % 4 + 4) % 4;
+    Vector3 v0 = corners[(4 - steps) % 4];
+    Vector3 v1 = corners[(5 - steps) % 4];
+    Vector3 v2 = corners[(7 - steps) % 4];
+
+    // Minecraft texture coordinates have v pointing down.
+    uvOut.set(uv[0] / 16, uv[2] / 16, 1 - uv[3] / 16, 1 - uv[1] / 16);
+    return new Vector3[] { v0, v1, v2 };
+  }
+
+  /**
+   * Face corners as seen from outside the element, in the order
+   * bottom left, bottom right, top right, top left.
+   */
+  private static Vector3[] faceCorners(int face, double x0, double y0, double z0, double x1,
+      double y1, double z1) {
+    switch (face) {
+      case 0: // North.
+        return new Vector3[] {
+            new Vector3(x1, y0, z0), new Vector3(x0, y0, z0),
+            new Vector3(x0, y1, z0), new Vector3(x1, y1, z0) };
+      case 1: // South.
+        return new Vector3[] {
+            new Vector3(x0, y0, z1), new Vector3(x1, y0, z1),
+            new Vector3(x1, y1, z1), new Vector3(x0, y1, z1) };
+      case 2: // West.
+        return new Vector3[] {
+            new Vector3(x0, y0, z0), new Vector3(x0, y0, z1),
+            new Vector3(x0, y1, z1), new Vector3(x0, y1, z0) };
+      case 3: // East.
+        return new Vector3[] {
+            new Vector3(x1, y0, z1), new Vector3(x1, y0, z0),
+            new Vector3(x1, y1, z0), new Vector3(x1, y1, z1) };
+      case 4: // Up.
+        return new Vector3[] {
+            new Vector3(x0, y1, z1), new Vector3(x1, y1, z1),
+            new Vector3(x1, y1, z0), new Vector3(x0, y1, z0) };
+      default: // Down.
+        return new Vector3[] {
+            new Vector3(x0, y0, z0), new Vector3(x1, y0, z0),
+            new Vector3(x1, y0, z1), new Vector3(x0, y0, z1) };
+    }
+  }
+
+  /**
+   * The texture coordinates Minecraft uses for a face without explicit uv.
+   */
+  private static double[] defaultUv(int face, double[] from, double[] to) {
+    switch (face) {
+      case 0: // North.
+        return new double[] { 16 - to[0], 16 - to[1], 16 - from[0], 16 - from[1] };
+      case 1: // South.
+        return new double[] { from[0], 16 - to[1], to[0], 16 - from[1] };
+      case 2: // West.
+        return new double[] { from[2], 16 - to[1], to[2], 16 - from[1] };
+      case 3: // East.
+        return new double[] { 16 - to[2], 16 - to[1], 16 - from[2], 16 - from[1] };
+      case 4: // Up.
+        return new double[] { from[0], from[2], to[0], to[2] };
+      default: // Down.
+        return new double[] { from[0], 16 - to[2], to[0], 16 - from[2] };
+    }
+  }
+
+  /**
+   * Apply an element rotation to the face corners.
+   */
+  private static void rotate(Vector3[] corners, JsonObject rotation) {
+    double[] origin = vector(rotation.get("origin"), 8);
+    double ox = origin[0] / 16;
+    double oy = origin[1] / 16;
+    double oz = origin[2] / 16;
+    double angle = Math.toRadians(rotation.get("angle").doubleValue(0));
+    String axis = rotation.get("axis").stringValue("y");
+    double cos = Math.cos(angle);
+    double sin = Math.sin(angle);
+    // Rescaling stretches the rotated element to span the full block again.
+    double scale = rotation.get("rescale").boolValue(false) ? 1 / Math.abs(cos) : 1;
+    for (Vector3 corner : corners) {
+      double x = corner.x - ox;
+      double y = corner.y - oy;
+      double z = corner.z - oz;
+      double rx, ry, rz;
+      switch (axis) {
+        case "x":
+          rx = x;
+          ry = (y * cos - z * sin) * scale;
+          rz = (y * sin + z * cos) * scale;
+          break;
+        case "z":
+          rx = (x * cos - y * sin) * scale;
+          ry = (x * sin + y * cos) * scale;
+          rz = z;
+          break;
+        default:
+          rx = (x * cos + z * sin) * scale;
+          ry = y;
+          rz = (-x * sin + z * cos) * scale;
+          break;
+      }
+      corner.set(rx + ox, ry + oy, rz + oz);
+    }
+  }
+
+  private static double[] vector(JsonValue value, double defaultValue) {
+    double[] result = { defaultValue, defaultValue, defaultValue };
+    if (!value.isUnknown()) {
+      List<JsonValue> elements = value.array().getElementList();
+      for (int i = 0; i < 3 && i < elements.size(); ++i) {
+        result[i] = elements.get(i).doubleValue(defaultValue);
+      }
+    }
+    return result;
+  }
+
+  private static double[] vector4(JsonValue value) {
+    double[] result = { 0, 0, 16, 16 };
+    List<JsonValue> elements = value.array().getElementList();
+    for (int i = 0; i < 4 && i < elements.size(); ++i) {
+      result[i] = elements.get(i).doubleValue(result[i]);
+    }
+    return result;
+  }
+}
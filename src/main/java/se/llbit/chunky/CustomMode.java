@@ -0,0 +1,94 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.world.Block;
+import se.llbit.math.Ray;
+
+import java.io.IOException;
+
+/**
+ * Renders the selected JSON block model, or the redstone wire test model if
+ * no JSON model is selected.
+ */
+public class CustomMode implements RenderMode {
+  @Override public String getName() {
+    return "custom";
+  }
+
+  @Override public RenderKernel createKernel(FrameContext frame) {
+    BlockModel blockModel = null;
+    if (!frame.getCustomModel().isEmpty()) {
+      try {
+        blockModel = BlockModelLoader.getDefault().load(frame.getCustomModel());
+      } catch (IOException ignored) {
+        // Already reported by the loader. The test model is used instead.
+      }
+    }
+    if (blockModel != null) {
+      return new BlockModelKernel(blockModel, frame.getBlock(), frame.getMaterial(),
+          frame.modelScratch, frame.stats);
+    } else {
+      frame.testModel.setUp();
+      return new TestModelKernel(frame.testModel, frame.getBlock(), frame.getMaterial());
+    }
+  }
+
+  private static final class BlockModelKernel implements RenderKernel {
+    private final BlockModel model;
+    private final Block block;
+    private final int material;
+    private final BlockModel.Scratch scratch;
+    private final TraceStats stats;
+
+    BlockModelKernel(BlockModel model, Block block, int material, BlockModel.Scratch scratch,
+        TraceStats stats) {
+      this.model = model;
+      this.block = block;
+      this.material = material;
+      this.scratch = scratch;
+      this.stats = stats;
+    }
+
+    @Override public boolean trace(Ray ray, double tNear, double tFar) {
+      return BlockMode.enter(ray, tNear, tFar, block, material)
+          && model.intersect(ray, scratch, stats);
+    }
+
+    @Override public void traceRow(RayRow row) {
+      row.traceEach(this);
+    }
+  }
+
+  private static final class TestModelKernel implements RenderKernel {
+    private final TestModel model;
+    private final Block block;
+    private final int material;
+
+    TestModelKernel(TestModel model, Block block, int material) {
+      this.model = model;
+      this.block = block;
+      this.material = material;
+    }
+
+    @Override public boolean trace(Ray ray, double tNear, double tFar) {
+      return BlockMode.enter(ray, tNear, tFar, block, material) && model.intersectB(ray);
+    }
+
+    @Override public void traceRow(RayRow row) {
+      row.traceEach(this);
+    }
+  }
+}
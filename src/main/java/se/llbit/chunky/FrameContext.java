@@ -0,0 +1,75 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.renderer.scene.Scene;
+import se.llbit.chunky.world.Block;
+import se.llbit.chunky.world.BlockData;
+
+/**
+ * The frame settings and tracer resources available to a
+ * {@link RenderMode} when it creates a kernel.
+ */
+public final class FrameContext {
+  /** Ray tracing counters of the tracer, only updated if {@link TraceStats#ENABLED} is set. */
+  final TraceStats stats;
+
+  /** Redstone wire test model of the tracer. */
+  final TestModel testModel;
+
+  /** Scratch buffers of the tracer for JSON block model intersection. */
+  final BlockModel.Scratch modelScratch = new BlockModel.Scratch();
+
+  private final Scene scene;
+  private ViewState view = new ViewState();
+
+  FrameContext(TraceStats stats, TestModel testModel, Scene scene) {
+    this.stats = stats;
+    this.testModel = testModel;
+    this.scene = scene;
+  }
+
+  void setView(ViewState view) {
+    this.view = view;
+  }
+
+  /** Mock scene object required by some block renderers. */
+  public Scene getScene() {
+    return scene;
+  }
+
+  public int getBlockId() {
+    return view.blockId;
+  }
+
+  public int getBlockData() {
+    return view.blockData;
+  }
+
+  /** The selected block. */
+  public Block getBlock() {
+    return Block.get(view.blockId);
+  }
+
+  /** The material value for the selected block id and data. */
+  public int getMaterial() {
+    return view.blockId | (view.blockData << BlockData.OFFSET);
+  }
+
+  /** The selected JSON block model name, or an empty string. */
+  public String getCustomModel() {
+    return view.customModel;
+  }
+}
@@ -0,0 +1,33 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+/**
+ * Receives the frames completed by a {@link TestRenderThread}.
+ */
+interface FrameListener {
+  /**
+   * Called on the render thread after each frame. The frame buffer is reused
+   * for a later frame once this method returns, so it must be copied if it
+   * is used afterwards.
+   *
+   * @param renderTime frame render time in milliseconds
+   * @param inputCount number of input events applied to the view state
+   * of this frame, see {@link TestRenderThread#getInputCount()}
+   */
+  void frameCompleted(BitmapImage frame, double renderTime, long inputCount);
+}
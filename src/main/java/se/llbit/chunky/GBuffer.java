@@ -0,0 +1,167 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Per-pixel results of the trace pass, indexed like the pixels of the
+ * rendered image. The final image is composited from the G-buffer, so
+ * settings that only change shading do not need the scene to be traced
+ * again.
+ */
+class GBuffer {
+  final int width;
+  final int height;
+
+  /** Distance from the camera to the hit point, positive infinity where the ray missed. */
+  final float[] distance;
+
+  /** Surface normal at the hit point, three components per pixel. */
+  final float[] normal;
+
+  /** Linear RGBA color at the hit point, four components per pixel. */
+  final float[] color;
+
+  /** Material value at the hit point, -1 where the ray missed. */
+  final int[] material;
+
+  GBuffer(int width, int height) {
+    this.width = width;
+    this.height = height;
+    int size = width * height;
+    distance = new float[size];
+    normal = new float[3 * size];
+    color = new float[4 * size];
+    material = new int[size];
+  }
+
+  boolean isHit(int index) {
+    return distance[index] != Float.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Store the result of a traced ray.
+   *
+   * @param camera the ray origin before tracing
+   */
+  void store(int index, Ray ray, boolean hit, Vector3 camera) {
+    if (hit) {
+      double dx = ray.o.x - camera.x;
+      double dy = ray.o.y - camera.y;
+      double dz = ray.o.z - camera.z;
+      distance[index] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+      normal[3 * index] = (float) ray.n.x;
+      normal[3 * index + 1] = (float) ray.n.y;
+      normal[3 * index + 2] = (float) ray.n.z;
+      color[4 * index] = (float) ray.color.x;
+      color[4 * index + 1] = (float) ray.color.y;
+      color[4 * index + 2] = (float) ray.color.z;
+      color[4 * index + 3] = (float) ray.color.w;
+      material[index] = ray.getCurrentData();
+    } else {
+      distance[index] = Float.POSITIVE_INFINITY;
+      material[index] = -1;
+    }
+  }
+
+  /**
+   * Write the buffers as PNG images for debugging: name_distance.png,
+   * name_normal.png, name_color.png and name_material.png in the given
+   * directory. Pixels where the ray missed are transparent.
+   */
+  void export(File directory, String name) throws IOException {
+    Files.createDirectories(directory.toPath());
+    write(new File(directory, name + "_distance.png"), distanceImage());
+    write(new File(directory, name + "_normal.png"), normalImage());
+    write(new File(directory, name + "_color.png"), colorImage());
+    write(new File(directory, name + "_material.png"), materialImage());
+  }
+
+  private static void write(File file, BitmapImage image) throws IOException {
+    Files.write(file.toPath(), PngEncoder.encode(image));
+  }
+
+  /** Hit distance, from white for the nearest to black for the farthest hit. */
+  BitmapImage distanceImage() {
+    float min = Float.POSITIVE_INFINITY;
+    float max = 0;
+    for (int i = 0; i < distance.length; ++i) {
+      if (isHit(i)) {
+        min = Math.min(min, distance[i]);
+        max = Math.max(max, distance[i]);
+      }
+    }
+    float range = max > min ? max - min : 1;
+    BitmapImage image = new BitmapImage(width, height);
+    for (int i = 0; i < distance.length; ++i) {
+      if (isHit(i)) {
+        float value = 1 - (distance[i] - min) / range;
+        image.data[i] = argb(value, value, value);
+      }
+    }
+    return image;
+  }
+
+  /** Normals mapped from [-1, 1] to [0, 255] per component. */
+  BitmapImage normalImage() {
+    BitmapImage image = new BitmapImage(width, height);
+    for (int i = 0; i < distance.length; ++i) {
+      if (isHit(i)) {
+        image.data[i] = argb(.5f + .5f * normal[3 * i], .5f + .5f * normal[3 * i + 1],
+            .5f + .5f * normal[3 * i + 2]);
+      }
+    }
+    return image;
+  }
+
+  /** Hit colors with the same gamma as the composited image. */
+  BitmapImage colorImage() {
+    BitmapImage image = new BitmapImage(width, height);
+    for (int i = 0; i < distance.length; ++i) {
+      if (isHit(i)) {
+        image.data[i] = argb((float) Math.sqrt(color[4 * i]),
+            (float) Math.sqrt(color[4 * i + 1]), (float) Math.sqrt(color[4 * i + 2]));
+      }
+    }
+    return image;
+  }
+
+  /** One arbitrary color per material value. */
+  BitmapImage materialImage() {
+    BitmapImage image = new BitmapImage(width, height);
+    for (int i = 0; i < distance.length; ++i) {
+      if (isHit(i)) {
+        int hash = material[i] * 0x9E3779B1;
+        image.data[i] = 0xFF000000 | (hash >>> 8);
+      }
+    }
+    return image;
+  }
+
+  private static int argb(float r, float g, float b) {
+    return 0xFF000000 | (channel(r) << 16) | (channel(g) << 8) | channel(b);
+  }
+
+  private static int channel(float value) {
+    return (int) (255 * Math.max(0, Math.min(1, value)) + .5f);
+  }
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import java.util.Arrays;
+
+/**
+ * Maps per-pixel trace cost to a color ramp.
+ */
+class Heatmap {
+  /**
+   * The cost at this percentile is mapped to the top of the color ramp.
+   * Using a percentile instead of the maximum keeps single outliers,
+   * for example caused by preemption of the render thread, from
+   * compressing the rest of the image into the bottom of the ramp.
+   */
+  private static final double SCALE_PERCENTILE = 0.99;
+
+  /** Color ramp: black, blue, green, yellow, red. */
+  private static final float[][] RAMP = {
+      { 0, 0, 0 },
+      { 0, 0, 1 },
+      { 0, 1, 0 },
+      { 1, 1, 0 },
+      { 1, 0, 0 },
+  };
+
+  private Heatmap() {
+  }
+
+  /**
+   * Replace the image with a heatmap of the per-pixel cost, auto-scaled to
+   * the cost distribution of this frame.
+   *
+   * @param cost per-pixel cost, indexed like the image pixels
+   * @param overlay blend the heatmap over the rendered image
+   * @return the cost mapped to the top of the color ramp
+   */
+  static float apply(BitmapImage image, float[] cost, boolean overlay) {
+    int size = image.width * image.height;
+    float[] sorted = Arrays.copyOf(cost, size);
+    Arrays.sort(sorted);
+    float scale = sorted[(int) (SCALE_PERCENTILE * (size - 1))];
+    if (scale <= 0) {
+      scale = 1;
+    }
+    float[] rgb = new float[3];
+    for (int i = 0; i < size; ++i) {
+      ramp(Math.min(1, cost[i] / scale), rgb);
+      int r = (int) (rgb[0] * 255);
+      int g = (int) (rgb[1] * 255);
+      int b = (int) (rgb[2] * 255);
+      if (overlay) {
+        int pixel = image.data[i];
+        r = (r + (0xFF & (pixel >>> 16))) / 2;
+        g = (g + (0xFF & (pixel >>> 8))) / 2;
+        b = (b + (0xFF & pixel)) / 2;
+      }
+      image.data[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+    return scale;
+  }
+
+  private static void ramp(float value, float[] rgb) {
+    float position = value * (RAMP.length - 1);
+    int index = Math.min(RAMP.length - 2, (int) position);
+    float t = position - index;
+    float[] c0 = RAMP[index];
+    float[] c1 = RAMP[index + 1];
+    rgb[0] = c0[0] + t * (c1[0] - c0[0]);
+    rgb[1] = c0[1] + t * (c1[1] - c0[1]);
+    rgb[2] = c0[2] + t * (c1[2] - c0[2]);
+  }
+}
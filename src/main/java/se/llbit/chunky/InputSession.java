@@ -0,0 +1,265 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded sequence of timestamped input events for the render thread.
+ *
+ * <p>The file format is a header (the magic number and a version byte)
+ * followed by one record per event. Each record is an event type byte, the
+ * time since the previous event in microseconds as a variable-length
+ * integer, and the event arguments.
+ */
+class InputSession {
+  private static final int MAGIC = 0x54524953; // "TRIS"
+  private static final int VERSION = 1;
+
+  static final int PAN_VIEW = 1;
+  static final int MOVE_FORWARD = 2;
+  static final int SET_BLOCK_ID = 3;
+  static final int SET_BLOCK_DATA = 4;
+  static final int SET_MODEL = 5;
+  static final int ENABLE_COMPASS = 6;
+
+  /** A recorded input event. */
+  static class Event {
+    /** Time since the start of the session, in microseconds. */
+    final long time;
+    final int type;
+    final double x, y;
+    final int value;
+    final String model;
+
+    Event(long time, int type, double x, double y, int value, String model) {
+      this.time = time;
+      this.type = type;
+      this.x = x;
+      this.y = y;
+      this.value = value;
+      this.model = model;
+    }
+
+    /** Apply this event to the render thread. */
+    void apply(TestRenderThread thread) {
+      switch (type) {
+        case PAN_VIEW:
+          thread.panView(x, y);
+          break;
+        case MOVE_FORWARD:
+          thread.moveForward(x);
+          break;
+        case SET_BLOCK_ID:
+          thread.setBlockId(value);
+          break;
+        case SET_BLOCK_DATA:
+          thread.setBlockData(value);
+          break;
+        case SET_MODEL:
+          thread.setModel(model);
+          break;
+        case ENABLE_COMPASS:
+          thread.enableCompass(value != 0);
+          break;
+      }
+    }
+  }
+
+  final List<Event> events;
+
+  private InputSession(List<Event> events) {
+    this.events = events;
+  }
+
+  /** Duration of the session in microseconds. */
+  long duration() {
+    return events.isEmpty() ? 0 : events.get(events.size() - 1).time;
+  }
+
+  static InputSession read(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not an input session file: " + file);
+      }
+      int version = in.readUnsignedByte();
+      if (version != VERSION) {
+        throw new IOException("Unsupported input session version: " + version);
+      }
+      List<Event> events = new ArrayList<>();
+      long time = 0;
+      while (true) {
+        int type = in.read();
+        if (type == -1) {
+          break;
+        }
+        try {
+          time += readVarLong(in);
+          switch (type) {
+            case PAN_VIEW:
+              events.add(new Event(time, type, in.readDouble(), in.readDouble(), 0, ""));
+              break;
+            case MOVE_FORWARD:
+              events.add(new Event(time, type, in.readDouble(), 0, 0, ""));
+              break;
+            case SET_BLOCK_ID:
+            case SET_BLOCK_DATA:
+            case ENABLE_COMPASS:
+              events.add(new Event(time, type, 0, 0, (int) readVarLong(in), ""));
+              break;
+            case SET_MODEL:
+              events.add(new Event(time, type, 0, 0, 0, in.readUTF()));
+              break;
+            default:
+              throw new IOException("Unknown input event type: " + type);
+          }
+        } catch (EOFException e) {
+          // The recording was cut off, for example by a crash. Keep the complete events.
+          System.err.println("Input session truncated after " + events.size() + " events");
+          break;
+        }
+      }
+      return new InputSession(events);
+    }
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Writes input events to a session file as they happen. Write errors are
+   * reported once, after which the recorder stops recording.
+   */
+  static class Recorder implements AutoCloseable {
+    private final DataOutputStream out;
+    private long lastTime;
+    private boolean failed = false;
+
+    Recorder(File file) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      lastTime = System.nanoTime();
+    }
+
+    synchronized void panView(double dx, double dy) {
+      if (failed) {
+        return;
+      }
+      try {
+        writeHeader(PAN_VIEW);
+        out.writeDouble(dx);
+        out.writeDouble(dy);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+
+    synchronized void moveForward(double scale) {
+      if (failed) {
+        return;
+      }
+      try {
+        writeHeader(MOVE_FORWARD);
+        out.writeDouble(scale);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+
+    synchronized void setBlockId(int blockId) {
+      writeValue(SET_BLOCK_ID, blockId);
+    }
+
+    synchronized void setBlockData(int data) {
+      writeValue(SET_BLOCK_DATA, data);
+    }
+
+    synchronized void enableCompass(boolean enable) {
+      writeValue(ENABLE_COMPASS, enable ? 1 : 0);
+    }
+
+    synchronized void setModel(String model) {
+      if (failed) {
+        return;
+      }
+      try {
+        writeHeader(SET_MODEL);
+        out.writeUTF(model);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+
+    private void writeValue(int type, int value) {
+      if (failed) {
+        return;
+      }
+      try {
+        writeHeader(type);
+        writeVarLong(value & 0xFFFFFFFFL);
+      } catch (IOException e) {
+        writeFailed(e);
+      }
+    }
+
+    private void writeHeader(int type) throws IOException {
+      long now = System.nanoTime();
+      out.writeByte(type);
+      writeVarLong((now - lastTime) / 1000);
+      // Keep the sub-microsecond remainder so that rounding errors do not accumulate.
+      lastTime = now - (now - lastTime) % 1000;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private void writeFailed(IOException e) {
+      if (!failed) {
+        failed = true;
+        System.err.println("Failed to record input: " + e.getMessage());
+      }
+    }
+
+    @Override public synchronized void close() throws IOException {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+
+/**
+ * Quad geometry stored as one array per component, so that several quads
+ * can be loaded into vector lanes at once.
+ *
+ * <p>A quad spans the parallelogram o + u * xv + v * yv for u, v in [0, 1],
+ * like {@link se.llbit.math.Quad}. Only the front side, facing along the
+ * normal xv &times; yv, is hit.
+ */
+class PackedQuads {
+  final int size;
+
+  /** Origin. */
+  final double[] ox, oy, oz;
+
+  /** First edge, from the origin. */
+  final double[] xvx, xvy, xvz;
+
+  /** Second edge, from the origin. */
+  final double[] yvx, yvy, yvz;
+
+  /** Unit normal. */
+  final double[] nx, ny, nz;
+
+  /** Plane offset: -n &middot; o. */
+  final double[] nd;
+
+  /** Reciprocal squared edge lengths. */
+  final double[] xvl, yvl;
+
+  /** Texture coordinates: u0 + u * du, v0 + v * dv. */
+  final double[] u0, du, v0, dv;
+
+  PackedQuads(int size) {
+    this.size = size;
+    ox = new double[size];
+    oy = new double[size];
+    oz = new double[size];
+    xvx = new double[size];
+    xvy = new double[size];
+    xvz = new double[size];
+    yvx = new double[size];
+    yvy = new double[size];
+    yvz = new double[size];
+    nx = new double[size];
+    ny = new double[size];
+    nz = new double[size];
+    nd = new double[size];
+    xvl = new double[size];
+    yvl = new double[size];
+    u0 = new double[size];
+    du = new double[size];
+    v0 = new double[size];
+    dv = new double[size];
+  }
+
+  /**
+   * Store a quad with the corners v0, v1, v2 and texture coordinates
+   * (u0, u1, v0, v1), using the same arguments as the Quad constructor.
+   */
+  void set(int i, Vector3 c0, Vector3 c1, Vector3 c2, Vector4 uv) {
+    ox[i] = c0.x;
+    oy[i] = c0.y;
+    oz[i] = c0.z;
+    xvx[i] = c1.x - c0.x;
+    xvy[i] = c1.y - c0.y;
+    xvz[i] = c1.z - c0.z;
+    yvx[i] = c2.x - c0.x;
+    yvy[i] = c2.y - c0.y;
+    yvz[i] = c2.z - c0.z;
+    double cx = xvy[i] * yvz[i] - xvz[i] * yvy[i];
+    double cy = xvz[i] * yvx[i] - xvx[i] * yvz[i];
+    double cz = xvx[i] * yvy[i] - xvy[i] * yvx[i];
+    double length = Math.sqrt(cx * cx + cy * cy + cz * cz);
+    nx[i] = cx / length;
+    ny[i] = cy / length;
+    nz[i] = cz / length;
+    nd[i] = -(nx[i] * ox[i] + ny[i] * oy[i] + nz[i] * oz[i]);
+    xvl[i] = 1 / (xvx[i] * xvx[i] + xvy[i] * xvy[i] + xvz[i] * xvz[i]);
+    yvl[i] = 1 / (yvx[i] * yvx[i] + yvy[i] * yvy[i] + yvz[i] * yvz[i]);
+    u0[i] = uv.x;
+    du[i] = uv.y - uv.x;
+    v0[i] = uv.z;
+    dv[i] = uv.w - uv.z;
+  }
+
+  /**
+   * Copy quad j of another packed quad set to index i.
+   */
+  void copy(int i, PackedQuads other, int j) {
+    ox[i] = other.ox[j];
+    oy[i] = other.oy[j];
+    oz[i] = other.oz[j];
+    xvx[i] = other.xvx[j];
+    xvy[i] = other.xvy[j];
+    xvz[i] = other.xvz[j];
+    yvx[i] = other.yvx[j];
+    yvy[i] = other.yvy[j];
+    yvz[i] = other.yvz[j];
+    nx[i] = other.nx[j];
+    ny[i] = other.ny[j];
+    nz[i] = other.nz[j];
+    nd[i] = other.nd[j];
+    xvl[i] = other.xvl[j];
+    yvl[i] = other.yvl[j];
+    u0[i] = other.u0[j];
+    du[i] = other.du[j];
+    v0[i] = other.v0[j];
+    dv[i] = other.dv[j];
+  }
+}
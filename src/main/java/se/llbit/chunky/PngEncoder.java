@@ -0,0 +1,40 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes rendered frames as PNG images.
+ */
+class PngEncoder {
+  private PngEncoder() {
+  }
+
+  static byte[] encode(BitmapImage image) throws IOException {
+    BufferedImage out = new BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB);
+    out.setRGB(0, 0, image.width, image.height, image.data, 0, image.width);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    if (!ImageIO.write(out, "png", bytes)) {
+      throw new IOException("No PNG writer available");
+    }
+    return bytes.toByteArray();
+  }
+}
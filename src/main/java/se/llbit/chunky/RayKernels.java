@@ -0,0 +1,51 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * Batched ray intersection kernels.
+ *
+ * <p>This is the Java 8 version, which always uses the scalar kernels.
+ * The multi-release jar contains a Java 16 version of this class in
+ * {@code src/main/java16} that uses SIMD kernels when the
+ * {@code jdk.incubator.vector} module is available.
+ */
+class RayKernels {
+  static final boolean VECTORIZED = false;
+
+  private RayKernels() {
+  }
+
+  /**
+   * Intersect a batch of rays with the unit box [0, 1]<sup>3</sup>.
+   * Stores the entry and exit distances for each ray. Same as the per-ray
+   * slab test previously done in {@code enterBlock}: the ray misses the box
+   * if tNear &gt; tFar or tFar &lt; 0.
+   */
+  static void unitBox(double[] ox, double[] oy, double[] oz, double[] dx, double[] dy,
+      double[] dz, double[] nearOut, double[] farOut, int count) {
+    ScalarKernels.unitBox(ox, oy, oz, dx, dy, dz, nearOut, farOut, 0, count);
+  }
+
+  /**
+   * Intersect one ray with the quads first, ..., first + count - 1.
+   * For each quad, stores the hit distance (positive infinity for a miss)
+   * and texture coordinates at index 0, ..., count - 1 of the output arrays.
+   */
+  static void quads(PackedQuads quads, int first, int count, double ox, double oy, double oz,
+      double dx, double dy, double dz, double[] tOut, double[] uOut, double[] vOut) {
+    ScalarKernels.quads(quads, first, 0, count, ox, oy, oz, dx, dy, dz, tOut, uOut, vOut);
+  }
+}
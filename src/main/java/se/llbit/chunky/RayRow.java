@@ -0,0 +1,117 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+
+/**
+ * The primary rays of one image row, traced by
+ * {@link RenderKernel#traceRow}. The same ray object is reused for every
+ * pixel: {@link #ray} sets it up for a pixel, and {@link #store} saves the
+ * result in the G-buffer.
+ */
+public final class RayRow {
+  private final Ray ray = new Ray();
+  private final TraceStats stats;
+
+  /** Camera position, the origin of all rays. */
+  Vector3 origin;
+
+  /** Ray directions and the center block entry and exit distances. */
+  double[] dx, dy, dz, near, far;
+
+  int size;
+
+  /** Receives the trace results. Pixel i is stored at {@code gbufferOffset + i}. */
+  GBuffer gbuffer;
+  int gbufferOffset;
+
+  /** Per-pixel trace time output, or null. Pixel i is stored at {@code costOffset + i}. */
+  float[] cost;
+  int costOffset;
+
+  private long start;
+
+  RayRow(TraceStats stats) {
+    this.stats = stats;
+  }
+
+  /** The number of pixels in the row. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Set up the ray for pixel i: it starts at the camera, with a white color.
+   *
+   * @return the ray, which is only valid until the next call
+   */
+  public Ray ray(int i) {
+    if (TraceStats.ENABLED) {
+      stats.rays += 1;
+    }
+    ray.setDefault();
+    ray.t = Double.POSITIVE_INFINITY;
+    ray.d.set(dx[i], dy[i], dz[i]);
+    ray.o.set(origin);
+    ray.color.set(1, 1, 1, 1);
+    if (cost != null) {
+      start = System.nanoTime();
+    }
+    return ray;
+  }
+
+  /** Distance along the ray of pixel i to where it enters the center block. */
+  public double tNear(int i) {
+    return near[i];
+  }
+
+  /** Distance along the ray of pixel i to where it exits the center block. */
+  public double tFar(int i) {
+    return far[i];
+  }
+
+  /**
+   * Store the result of tracing the ray of pixel i.
+   *
+   * @param hit {@code true} if the ray hit something
+   */
+  public void store(int i, boolean hit) {
+    if (cost != null) {
+      // The batched slab tests are not included in the pixel cost.
+      cost[costOffset + i] = System.nanoTime() - start;
+    }
+    if (hit && TraceStats.ENABLED) {
+      stats.hits += 1;
+    }
+    gbuffer.store(gbufferOffset + i, ray, hit, origin);
+  }
+
+  /**
+   * Trace every pixel of the row with the given kernel.
+   *
+   * <p>The built-in kernels call this from their own {@code traceRow}. It is
+   * small enough to be inlined there, where the kernel type is known
+   * exactly, so the {@code trace} call is bound statically and can be
+   * inlined as well.
+   */
+  void traceEach(RenderKernel kernel) {
+    for (int i = 0; i < size; ++i) {
+      Ray ray = ray(i);
+      store(i, kernel.trace(ray, near[i], far[i]));
+    }
+  }
+}
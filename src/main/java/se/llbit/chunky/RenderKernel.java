@@ -0,0 +1,44 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.math.Ray;
+
+/**
+ * Traces rays for one frame of a {@link RenderMode}.
+ */
+public interface RenderKernel {
+  /**
+   * Trace a primary ray. If the ray hits something, the kernel should set
+   * the ray color and normal, and move the ray origin to the hit point.
+   * These are stored in the G-buffer. Rays that miss get the background
+   * color when the image is composited.
+   *
+   * @param tNear distance along the ray to where it enters the center
+   * block, the unit cube at the origin
+   * @param tFar distance along the ray to where it exits the center block.
+   * The ray misses the block if tNear &gt; tFar or tFar &lt; 0.
+   * @return {@code true} if the ray hit something
+   */
+  boolean trace(Ray ray, double tNear, double tFar);
+
+  /**
+   * Trace the primary rays of one image row. The default traces each
+   * ray with {@link #trace}.
+   */
+  default void traceRow(RayRow row) {
+    row.traceEach(this);
+  }
+}
@@ -0,0 +1,35 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * A render mode selectable in the test renderer.
+ *
+ * <p>Render modes are found with {@link java.util.ServiceLoader}: list the
+ * implementing class in
+ * {@code META-INF/services/se.llbit.chunky.RenderMode}. Implementations
+ * must be public and have a public no-argument constructor.
+ */
+public interface RenderMode {
+  /** The name of the mode, as selected in the user interface. */
+  String getName();
+
+  /**
+   * Create the kernel that traces one frame. This is called once per frame
+   * and tracer, so any lookups that depend only on the frame settings should
+   * be done here rather than per ray. Each kernel is used by one thread.
+   */
+  RenderKernel createKernel(FrameContext frame);
+}
@@ -0,0 +1,70 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The render modes registered through {@link ServiceLoader}.
+ */
+class RenderModes {
+  /** Used for unknown mode names. */
+  static final String DEFAULT = "block";
+
+  private static final Map<String, RenderMode> modes = load();
+
+  private RenderModes() {
+  }
+
+  private static Map<String, RenderMode> load() {
+    Map<String, RenderMode> modes = new LinkedHashMap<>();
+    try {
+      for (RenderMode mode : ServiceLoader.load(RenderMode.class)) {
+        if (modes.putIfAbsent(mode.getName(), mode) != null) {
+          System.err.println("Duplicate render mode name: " + mode.getName());
+        }
+      }
+    } catch (ServiceConfigurationError e) {
+      System.err.println("Failed to load render modes: " + e.getMessage());
+    }
+    if (!modes.containsKey(DEFAULT)) {
+      // The service file is missing, for example when run from a build without resources.
+      modes.put(DEFAULT, new BlockMode());
+    }
+    return Collections.unmodifiableMap(modes);
+  }
+
+  /** Names of the available modes, in registration order. */
+  static String[] getNames() {
+    return modes.keySet().toArray(new String[modes.size()]);
+  }
+
+  static boolean exists(String name) {
+    return modes.containsKey(name);
+  }
+
+  /**
+   * @return the named mode, or the default mode if there is no mode with
+   * that name
+   */
+  static RenderMode get(String name) {
+    RenderMode mode = modes.get(name);
+    return mode != null ? mode : modes.get(DEFAULT);
+  }
+}
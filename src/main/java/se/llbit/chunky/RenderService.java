@@ -0,0 +1,423 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.TexturePackLoader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small HTTP service serving rendered block previews as PNG images.
+ *
+ * <p>The service only listens on the loopback interface. Renders run on a
+ * bounded worker pool, identical concurrent requests share a single render,
+ * and encoded images are kept in an LRU cache bounded by their total size.
+ * Requests that would wait for
+ * a render when the worker threads and render queue are all taken get a 503
+ * response right away.
+ *
+ * <p>Endpoints:
+ * <ul>
+ *   <li>{@code /render?block=1&data=0&model=block&yaw=-135&pitch=-30&distance=1.5&width=400&height=400&compass=false&heatmap=false&overlay=false&json=block/anvil_undamaged}
+ *   <li>{@code /stats}
+ * </ul>
+ * Angles are given in degrees. All parameters are optional.
+ */
+public class RenderService {
+  static final int MAX_SIZE = 2048;
+
+  private final HttpServer server;
+  private final ExecutorService handlers;
+
+  /** Maximum number of requests waiting for a render. */
+  private final int maxWaiting;
+
+  /** Requests currently waiting for a render. */
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final ThreadPoolExecutor workers;
+  private final ThreadLocal<TestTracer> tracers = ThreadLocal.withInitial(TestTracer::new);
+
+  /** Renders that have been started but not yet completed. */
+  private final Map<RenderRequest, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+  /** Cached PNG images, in access order. */
+  private final Map<RenderRequest, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Maximum total size of the cached images, in bytes. */
+  private final long maxCacheBytes;
+
+  /** Total size of the cached images, guarded by the cache lock. */
+  private long cacheBytes = 0;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong renders = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong renderNanos = new AtomicLong();
+
+  /**
+   * @param port the port to listen on
+   * @param threads number of render worker threads
+   * @param queueSize maximum number of renders waiting for a worker
+   * @param maxCacheBytes maximum total size of the cached images in bytes
+   */
+  public RenderService(int port, int threads, int queueSize, long maxCacheBytes)
+      throws IOException {
+    workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(queueSize), namedThreads("render-worker"));
+    // Waiting requests block at most maxWaiting handler threads. The extra
+    // handlers answer cache hits, statistics and rejections without queueing
+    // behind them.
+    maxWaiting = threads + queueSize;
+    handlers = Executors.newFixedThreadPool(maxWaiting + threads, namedThreads("render-http"));
+    this.maxCacheBytes = maxCacheBytes;
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/render", this::handleRender);
+    server.createContext("/stats", this::handleStats);
+    server.setExecutor(handlers);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 8080;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int queueSize = 64;
+    int cacheMegabytes = 64;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-port":
+          port = Integer.parseInt(args[i + 1]);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "-queue":
+          queueSize = Integer.parseInt(args[i + 1]);
+          break;
+        case "-cache":
+          cacheMegabytes = Integer.parseInt(args[i + 1]);
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+    TestTracer.loadTextures();
+
+    RenderService service = new RenderService(port, threads, queueSize,
+        cacheMegabytes * 1024L * 1024L);
+    service.start();
+    System.out.format("Render service listening on http://localhost:%d/render%n", port);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    handlers.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  private void handleRender(HttpExchange exchange) throws IOException {
+    try {
+      requests.incrementAndGet();
+      RenderRequest request;
+      try {
+        request = RenderRequest.parse(exchange.getRequestURI().getRawQuery());
+      } catch (IllegalArgumentException e) {
+        sendText(exchange, 400, e.getMessage());
+        return;
+      }
+      byte[] png;
+      synchronized (cache) {
+        png = cache.get(request);
+      }
+      if (png != null) {
+        cacheHits.incrementAndGet();
+      } else {
+        if (waiting.incrementAndGet() > maxWaiting) {
+          waiting.decrementAndGet();
+          rejected.incrementAndGet();
+          sendText(exchange, 503, "Too many pending renders");
+          return;
+        }
+        try {
+          png = render(request).get(30, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+          rejected.incrementAndGet();
+          sendText(exchange, 503, "Render queue is full");
+          return;
+        } catch (TimeoutException e) {
+          sendText(exchange, 503, "Render timed out");
+          return;
+        } catch (ExecutionException e) {
+          sendText(exchange, 500, "Render failed: " + e.getCause());
+          return;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          sendText(exchange, 503, "Service is stopping");
+          return;
+        } finally {
+          waiting.decrementAndGet();
+        }
+      }
+      exchange.getResponseHeaders().set("Content-Type", "image/png");
+      exchange.sendResponseHeaders(200, png.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(png);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Start a render for the request, or join an identical render that is
+   * already in progress.
+   */
+  private CompletableFuture<byte[]> render(RenderRequest request) {
+    boolean[] started = { false };
+    CompletableFuture<byte[]> result = inFlight.computeIfAbsent(request, key -> {
+      started[0] = true;
+      return CompletableFuture.supplyAsync(() -> {
+        long start = System.nanoTime();
+        TestTracer tracer = tracers.get();
+        BitmapImage image = new BitmapImage(key.width, key.height);
+        tracer.setState(key.view);
+        tracer.drawFrame(image);
+        byte[] png;
+        try {
+          png = PngEncoder.encode(image);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        renderNanos.addAndGet(System.nanoTime() - start);
+        renders.incrementAndGet();
+        cachePut(key, png);
+        return png;
+      }, workers);
+    });
+    if (started[0]) {
+      // Registered outside computeIfAbsent: the callback may run immediately.
+      result.whenComplete((png, error) -> inFlight.remove(request, result));
+    } else {
+      coalesced.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Add an image to the cache and evict the least recently used images
+   * until the cache fits its size limit. Images larger than the whole
+   * cache are not cached.
+   */
+  private void cachePut(RenderRequest key, byte[] png) {
+    if (png.length > maxCacheBytes) {
+      return;
+    }
+    synchronized (cache) {
+      byte[] old = cache.put(key, png);
+      if (old != null) {
+        cacheBytes -= old.length;
+      }
+      cacheBytes += png.length;
+      Iterator<byte[]> iter = cache.values().iterator();
+      while (cacheBytes > maxCacheBytes) {
+        cacheBytes -= iter.next().length;
+        iter.remove();
+      }
+    }
+  }
+
+  private void handleStats(HttpExchange exchange) throws IOException {
+    try {
+      long count = renders.get();
+      int cached;
+      long cachedBytes;
+      synchronized (cache) {
+        cached = cache.size();
+        cachedBytes = cacheBytes;
+      }
+      String stats = String.format("requests: %d%n"
+              + "cache hits: %d%n"
+              + "coalesced: %d%n"
+              + "renders: %d%n"
+              + "rejected: %d%n"
+              + "mean render time: %.2fms%n"
+              + "cached images: %d (%d bytes)%n"
+              + "queued renders: %d%n",
+          requests.get(), cacheHits.get(), coalesced.get(), count, rejected.get(),
+          count == 0 ? 0.0 : renderNanos.get() / (count * 1000000.0), cached, cachedBytes,
+          workers.getQueue().size());
+      sendText(exchange, 200, stats);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void sendText(HttpExchange exchange, int status, String text)
+      throws IOException {
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static ThreadFactory namedThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * The parameters of a render request. Used as key for the response cache.
+   */
+  static class RenderRequest {
+    final ViewState view;
+    final int width;
+    final int height;
+
+    RenderRequest(ViewState view, int width, int height) {
+      this.view = view;
+      this.width = width;
+      this.height = height;
+    }
+
+    static RenderRequest parse(String query) {
+      Map<String, String> params = new HashMap<>();
+      if (query != null) {
+        for (String param : query.split("&")) {
+          int eq = param.indexOf('=');
+          if (eq > 0) {
+            params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+          }
+        }
+      }
+      ViewState view = new ViewState();
+      view.blockId = intParam(params, "block", view.blockId);
+      view.blockData = intParam(params, "data", view.blockData);
+      view.model = params.getOrDefault("model", view.model);
+      if (!RenderModes.exists(view.model)) {
+        throw new IllegalArgumentException("Unknown model: " + view.model);
+      }
+      view.yaw = Math.toRadians(doubleParam(params, "yaw", Math.toDegrees(view.yaw)));
+      view.pitch = Math.toRadians(doubleParam(params, "pitch", Math.toDegrees(view.pitch)));
+      view.distance = doubleParam(params, "distance", view.distance);
+      if (!(view.distance >= .1)) {
+        throw new IllegalArgumentException("Distance must be at least 0.1");
+      }
+      view.drawCompass = Boolean.parseBoolean(params.getOrDefault("compass", "false"));
+      view.customModel = params.getOrDefault("json", "").trim();
+      if (!BlockModelLoader.isValidName(view.customModel)) {
+        throw new IllegalArgumentException("Invalid model name: " + view.customModel);
+      }
+      view.heatmap = Boolean.parseBoolean(params.getOrDefault("heatmap", "false"));
+      view.heatmapOverlay = Boolean.parseBoolean(params.getOrDefault("overlay", "false"));
+      int width = intParam(params, "width", 400);
+      int height = intParam(params, "height", 400);
+      if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) {
+        throw new IllegalArgumentException(
+            String.format("Image size must be between 1 and %d", MAX_SIZE));
+      }
+      return new RenderRequest(view, width, height);
+    }
+
+    private static String decode(String text) {
+      try {
+        return URLDecoder.decode(text, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+        throw new Error(e);
+      }
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) {
+      String text = params.get(name);
+      if (text == null) {
+        return defaultValue;
+      }
+      int[] value = { defaultValue };
+      boolean[] valid = { false };
+      ViewState.parseInteger(text, result -> {
+        value[0] = result;
+        valid[0] = true;
+      });
+      if (!valid[0]) {
+        throw new IllegalArgumentException("Invalid integer for " + name + ": " + text);
+      }
+      return value[0];
+    }
+
+    private static double doubleParam(Map<String, String> params, String name,
+        double defaultValue) {
+      String text = params.get(name);
+      if (text == null) {
+        return defaultValue;
+      }
+      try {
+        return Double.parseDouble(text);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid number for " + name + ": " + text);
+      }
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof RenderRequest)) {
+        return false;
+      }
+      RenderRequest other = (RenderRequest) obj;
+      return width == other.width && height == other.height && view.equals(other.view);
+    }
+
+    @Override public int hashCode() {
+      return 31 * (31 * view.hashCode() + width) + height;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the render service. Runs a number of concurrent
+ * clients against a running {@link RenderService} and reports throughput
+ * and latency percentiles.
+ *
+ * <p>The number of distinct views requested controls the cache hit ratio:
+ * with few views most requests are cache hits or coalesced renders.
+ */
+public class RenderServiceBenchmark {
+  public static void main(String[] args) throws Exception {
+    String base = "http://localhost:8080";
+    int clients = 16;
+    int requestsPerClient = 100;
+    int views = 64;
+    int size = 200;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-url":
+          base = args[i + 1];
+          break;
+        case "-clients":
+          clients = Integer.parseInt(args[i + 1]);
+          break;
+        case "-requests":
+          requestsPerClient = Integer.parseInt(args[i + 1]);
+          break;
+        case "-views":
+          views = Integer.parseInt(args[i + 1]);
+          break;
+        case "-size":
+          size = Integer.parseInt(args[i + 1]);
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    long[] latencies = new long[clients * requestsPerClient];
+    AtomicInteger errors = new AtomicInteger();
+    CountDownLatch done = new CountDownLatch(clients);
+    Thread[] threads = new Thread[clients];
+    for (int i = 0; i < clients; ++i) {
+      int client = i;
+      int numRequests = requestsPerClient;
+      int numViews = views;
+      int imageSize = size;
+      String url = base;
+      threads[i] = new Thread(() -> {
+        Random random = new Random(client);
+        try {
+          for (int j = 0; j < numRequests; ++j) {
+            int view = random.nextInt(numViews);
+            String query = String.format("/render?yaw=%d&pitch=-30&width=%d&height=%d",
+                view * 360 / numViews, imageSize, imageSize);
+            long start = System.nanoTime();
+            if (!fetch(url + query)) {
+              errors.incrementAndGet();
+            }
+            latencies[client * numRequests + j] = System.nanoTime() - start;
+          }
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    done.await();
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    Arrays.sort(latencies);
+    System.out.format("%d requests from %d clients in %.2fs (%d errors)%n", latencies.length,
+        clients, seconds, errors.get());
+    System.out.format("throughput: %.1f requests/s%n", latencies.length / seconds);
+    System.out.format("latency p50: %.2fms, p90: %.2fms, p99: %.2fms, max: %.2fms%n",
+        percentile(latencies, .5), percentile(latencies, .9), percentile(latencies, .99),
+        latencies[latencies.length - 1] / 1e6);
+    System.out.println();
+    System.out.print(new String(read(new URL(base + "/stats")), StandardCharsets.UTF_8));
+  }
+
+  private static boolean fetch(String url) {
+    try {
+      read(new URL(url));
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static byte[] read(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try (InputStream in = connection.getInputStream()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /** @return the percentile in milliseconds */
+  private static double percentile(long[] sorted, double p) {
+    int index = (int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)));
+    return sorted[index] / 1e6;
+  }
+}
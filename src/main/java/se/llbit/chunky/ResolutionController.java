@@ -0,0 +1,102 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * Chooses the render resolution to keep frame times within a budget.
+ *
+ * <p>Frame times are smoothed with an exponential moving average. The
+ * resolution is lowered one step after a few frames over budget, and raised
+ * one step only after many frames where the higher resolution is predicted
+ * to fit well within budget. The gap between the two thresholds keeps the
+ * resolution from oscillating. Render time is assumed to scale with the
+ * number of pixels.
+ */
+class ResolutionController {
+  /** Resolution scale per level, relative to the canvas size. */
+  static final double[] SCALES = { 1, .85, .7, .6, .5, .4, .3, .25 };
+
+  /** Consecutive frames over budget before lowering the resolution. */
+  private static final int DOWN_FRAMES = 2;
+
+  /** Consecutive frames with headroom before raising the resolution. */
+  private static final int UP_FRAMES = 10;
+
+  /** Raise the resolution only if the predicted frame time is below this fraction of the budget. */
+  private static final double UP_THRESHOLD = .75;
+
+  private static final double SMOOTHING = .3;
+
+  private final double budget;
+  private int level = 0;
+  private double average = -1;
+  private int overBudget = 0;
+  private int underBudget = 0;
+
+  /**
+   * @param budget frame time budget in milliseconds
+   */
+  ResolutionController(double budget) {
+    this.budget = budget;
+  }
+
+  double getBudget() {
+    return budget;
+  }
+
+  /** The current resolution level, an index into {@link #SCALES}. */
+  int getLevel() {
+    return level;
+  }
+
+  /**
+   * Update the controller with the render time of the last frame, which was
+   * rendered at the current level.
+   *
+   * @param time render time in milliseconds
+   */
+  void frameCompleted(double time) {
+    average = average < 0 ? time : SMOOTHING * time + (1 - SMOOTHING) * average;
+    if (average > budget && level < SCALES.length - 1) {
+      underBudget = 0;
+      overBudget += 1;
+      if (overBudget >= DOWN_FRAMES) {
+        setLevel(level + 1);
+      }
+    } else if (level > 0 && predict(level - 1) < UP_THRESHOLD * budget) {
+      overBudget = 0;
+      underBudget += 1;
+      if (underBudget >= UP_FRAMES) {
+        setLevel(level - 1);
+      }
+    } else {
+      overBudget = 0;
+      underBudget = 0;
+    }
+  }
+
+  /** Predicted frame time at the given level. */
+  private double predict(int newLevel) {
+    double ratio = SCALES[newLevel] / SCALES[level];
+    return average * ratio * ratio;
+  }
+
+  private void setLevel(int newLevel) {
+    average = predict(newLevel);
+    level = newLevel;
+    overBudget = 0;
+    underBudget = 0;
+  }
+}
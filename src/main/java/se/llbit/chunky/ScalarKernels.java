@@ -0,0 +1,117 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.math.Ray;
+
+/**
+ * Scalar implementations of the batched intersection kernels.
+ * See {@link RayKernels}. The start parameter lets the SIMD kernels
+ * handle the tail of a batch here.
+ */
+class ScalarKernels {
+  private ScalarKernels() {
+  }
+
+  static void unitBox(double[] ox, double[] oy, double[] oz, double[] dx, double[] dy,
+      double[] dz, double[] nearOut, double[] farOut, int start, int count) {
+    for (int i = start; i < count; ++i) {
+      double t1, t2;
+      double tNear = Double.NEGATIVE_INFINITY;
+      double tFar = Double.POSITIVE_INFINITY;
+
+      if (dx[i] != 0) {
+        t1 = -ox[i] / dx[i];
+        t2 = (1 - ox[i]) / dx[i];
+
+        if (t1 > t2) {
+          double t = t1;
+          t1 = t2;
+          t2 = t;
+        }
+
+        if (t1 > tNear) {
+          tNear = t1;
+        }
+        if (t2 < tFar) {
+          tFar = t2;
+        }
+      }
+
+      if (dy[i] != 0) {
+        t1 = -oy[i] / dy[i];
+        t2 = (1 - oy[i]) / dy[i];
+
+        if (t1 > t2) {
+          double t = t1;
+          t1 = t2;
+          t2 = t;
+        }
+
+        if (t1 > tNear) {
+          tNear = t1;
+        }
+        if (t2 < tFar) {
+          tFar = t2;
+        }
+      }
+
+      if (dz[i] != 0) {
+        t1 = -oz[i] / dz[i];
+        t2 = (1 - oz[i]) / dz[i];
+
+        if (t1 > t2) {
+          double t = t1;
+          t1 = t2;
+          t2 = t;
+        }
+
+        if (t1 > tNear) {
+          tNear = t1;
+        }
+        if (t2 < tFar) {
+          tFar = t2;
+        }
+      }
+
+      nearOut[i] = tNear;
+      farOut[i] = tFar;
+    }
+  }
+
+  static void quads(PackedQuads q, int first, int start, int count, double ox, double oy,
+      double oz, double dx, double dy, double dz, double[] tOut, double[] uOut, double[] vOut) {
+    for (int j = start; j < count; ++j) {
+      int i = first + j;
+      tOut[j] = Double.POSITIVE_INFINITY;
+      double denom = dx * q.nx[i] + dy * q.ny[i] + dz * q.nz[i];
+      if (denom < -Ray.EPSILON) {
+        double t = -(ox * q.nx[i] + oy * q.ny[i] + oz * q.nz[i] + q.nd[i]) / denom;
+        if (t > -Ray.EPSILON) {
+          double px = ox + dx * t - q.ox[i];
+          double py = oy + dy * t - q.oy[i];
+          double pz = oz + dz * t - q.oz[i];
+          double u = (px * q.xvx[i] + py * q.xvy[i] + pz * q.xvz[i]) * q.xvl[i];
+          double v = (px * q.yvx[i] + py * q.yvy[i] + pz * q.yvz[i]) * q.yvl[i];
+          if (u >= 0 && u <= 1 && v >= 0 && v <= 1) {
+            tOut[j] = t;
+            uOut[j] = q.u0[i] + u * q.du[i];
+            vOut[j] = q.v0[i] + v * q.dv[i];
+          }
+        }
+      }
+    }
+  }
+}
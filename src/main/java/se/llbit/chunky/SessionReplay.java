@@ -0,0 +1,240 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.TexturePackLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a recorded input session against a headless render thread and
+ * reports frame latency.
+ *
+ * <p>Usage: {@code SessionReplay <session file> [options]}. Sessions are
+ * recorded by starting the test renderer with
+ * {@code -Dtestrenderer.record=<session file>}. Options:
+ * <ul>
+ * <li>{@code -realtime}: replay events with the recorded timing. By default
+ * events are replayed as fast as possible, each waiting for the frame
+ * showing the previous event.
+ * <li>{@code -predictive}: enable predictive rendering.
+ * <li>{@code -budget <ms>}: enable dynamic resolution with the given frame
+ * time budget.
+ * <li>{@code -width} and {@code -height}: frame size, default 400x400.
+ * <li>{@code -csv <file>}: write per-frame latency and render time.
+ * </ul>
+ *
+ * <p>Latency is measured from the oldest input event shown in a frame to the
+ * frame being completed. Input events that are replaced by a later event
+ * before they are rendered are counted as dropped frames.
+ */
+public class SessionReplay implements FrameListener {
+  private static class Frame {
+    final long time;
+    final double renderTime;
+    final long inputCount;
+
+    Frame(long time, double renderTime, long inputCount) {
+      this.time = time;
+      this.renderTime = renderTime;
+      this.inputCount = inputCount;
+    }
+  }
+
+  private final List<Frame> frames = new ArrayList<>();
+
+  /** Time each input event was issued, indexed by input count. */
+  private final long[] inputTimes;
+
+  private SessionReplay(int numEvents) {
+    inputTimes = new long[numEvents + 1];
+  }
+
+  @Override public synchronized void frameCompleted(BitmapImage frame, double renderTime,
+      long inputCount) {
+    frames.add(new Frame(System.nanoTime(), renderTime, inputCount));
+    notifyAll();
+  }
+
+  /** Wait for a frame showing the given number of input events. */
+  private synchronized void awaitFrame(long inputCount) throws InterruptedException {
+    while (frames.isEmpty() || frames.get(frames.size() - 1).inputCount < inputCount) {
+      wait();
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1) {
+      System.err.println("Usage: SessionReplay <session file> [-realtime] [-predictive] "
+          + "[-budget <ms>] [-width <w>] [-height <h>] [-csv <file>]");
+      System.exit(1);
+    }
+    File sessionFile = new File(args[0]);
+    boolean realtime = false;
+    boolean predictive = false;
+    double budget = 0;
+    int width = 400;
+    int height = 400;
+    String csv = null;
+    for (int i = 1; i < args.length; ++i) {
+      switch (args[i]) {
+        case "-realtime":
+          realtime = true;
+          break;
+        case "-predictive":
+          predictive = true;
+          break;
+        case "-budget":
+          budget = Double.parseDouble(args[++i]);
+          break;
+        case "-width":
+          width = Integer.parseInt(args[++i]);
+          break;
+        case "-height":
+          height = Integer.parseInt(args[++i]);
+          break;
+        case "-csv":
+          csv = args[++i];
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    InputSession session = InputSession.read(sessionFile);
+
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+
+    SessionReplay replay = new SessionReplay(session.events.size());
+    TestRenderThread thread = new TestRenderThread(replay, width, height);
+    thread.setPredictive(predictive,
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    thread.setFrameBudget(budget);
+    if (TraceStats.ENABLED) {
+      thread.setStatsMonitor(TraceStatsMonitor.get());
+    }
+    thread.start();
+
+    // Wait for the initial frame so that it is not included in the results.
+    replay.awaitFrame(0);
+    synchronized (replay) {
+      replay.frames.clear();
+    }
+
+    long start = System.nanoTime();
+    for (InputSession.Event event : session.events) {
+      if (realtime) {
+        long delay = start + event.time * 1000 - System.nanoTime();
+        if (delay > 0) {
+          Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+        }
+      }
+      long time = System.nanoTime();
+      long before = thread.getInputCount();
+      event.apply(thread);
+      long after = thread.getInputCount();
+      if (after > before) {
+        replay.inputTimes[(int) after] = time;
+      }
+      if (!realtime) {
+        replay.awaitFrame(after);
+      }
+    }
+    long inputCount = thread.getInputCount();
+    replay.awaitFrame(inputCount);
+    long totalTime = System.nanoTime() - start;
+    thread.interrupt();
+    thread.join();
+
+    synchronized (replay) {
+      replay.report(System.out, session, inputCount, totalTime, realtime);
+      if (csv != null) {
+        try (PrintStream out = new PrintStream(csv)) {
+          replay.writeCsv(out);
+        }
+      }
+    }
+  }
+
+  private void report(PrintStream out, InputSession session, long inputCount, long totalTime,
+      boolean realtime) {
+    List<Double> latencyList = new ArrayList<>();
+    long dropped = 0;
+    long previous = 0;
+    for (Frame frame : frames) {
+      if (frame.inputCount > previous) {
+        latencyList.add((frame.time - inputTimes[(int) previous + 1]) / 1e6);
+        dropped += frame.inputCount - previous - 1;
+        previous = frame.inputCount;
+      }
+    }
+    double[] latencies = new double[latencyList.size()];
+    for (int i = 0; i < latencies.length; ++i) {
+      latencies[i] = latencyList.get(i);
+    }
+    Arrays.sort(latencies);
+    double[] renderTimes = new double[frames.size()];
+    double renderSum = 0;
+    for (int i = 0; i < renderTimes.length; ++i) {
+      renderTimes[i] = frames.get(i).renderTime;
+      renderSum += renderTimes[i];
+    }
+    Arrays.sort(renderTimes);
+
+    out.format("Replayed %d events (%d state changes) %s%n", session.events.size(),
+        inputCount, realtime ? "in real time" : "as fast as possible");
+    out.format("recorded duration: %.2fs, total time: %.2fs%n", session.duration() / 1e6,
+        totalTime / 1e9);
+    out.format("frames: %d, dropped frames: %d%n", frames.size(), dropped);
+    if (latencies.length > 0) {
+      out.format("latency p50: %.2fms, p90: %.2fms, p99: %.2fms, max: %.2fms%n",
+          percentile(latencies, .5), percentile(latencies, .9), percentile(latencies, .99),
+          latencies[latencies.length - 1]);
+    }
+    if (renderTimes.length > 0) {
+      out.format("render time mean: %.2fms, p50: %.2fms, max: %.2fms%n",
+          renderSum / renderTimes.length, percentile(renderTimes, .5),
+          renderTimes[renderTimes.length - 1]);
+    }
+  }
+
+  private void writeCsv(PrintStream out) {
+    out.println("frame,inputs,latency_ms,render_ms");
+    long previous = 0;
+    for (int i = 0; i < frames.size(); ++i) {
+      Frame frame = frames.get(i);
+      String latency = "";
+      if (frame.inputCount > previous) {
+        latency = String.format(Locale.ROOT, "%.3f", (frame.time - inputTimes[(int) previous + 1]) / 1e6);
+        previous = frame.inputCount;
+      }
+      out.format(Locale.ROOT, "%d,%d,%s,%.3f%n", i, frame.inputCount, latency, frame.renderTime);
+    }
+  }
+
+  private static double percentile(double[] sorted, double p) {
+    int index = (int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)));
+    return sorted[index];
+  }
+}
@@ -0,0 +1,373 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.TexturePackLoader;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Drives the render loop headlessly with random camera and block changes
+ * for a long time, sampling heap and garbage collection statistics and
+ * frame times.
+ *
+ * <p>Usage: {@code SoakTest [options]}. Options:
+ * <ul>
+ * <li>{@code -duration <time>}: how long to run, in seconds or with an s,
+ * m or h suffix. Default 10m.
+ * <li>{@code -interval <time>}: time between samples. Default 10s.
+ * <li>{@code -seed <n>}: random seed.
+ * <li>{@code -threads <n>}: worker threads, 0 to render on the render
+ * thread. Default one per core.
+ * <li>{@code -out <file>}: write the report to a file instead of standard
+ * output.
+ * </ul>
+ *
+ * <p>The report lists every sample and ends with checks for steady heap
+ * growth after garbage collection and for increasing frame times. The exit
+ * status is 2 if a check fails.
+ *
+ * <p>Each sample forces a full collection with {@link System#gc}, so that the
+ * heap check sees the live heap and not what the latest young collection
+ * left behind. Do not run with {@code -XX:+DisableExplicitGC}.
+ */
+public class SoakTest implements FrameListener {
+  /** Samples at the start that are not used for the checks, while the JIT and caches warm up. */
+  private static final double WARMUP = .1;
+
+  /** Heap growth check: minimum fraction of sample steps where the heap grew. */
+  private static final double HEAP_GROWTH_STEPS = .75;
+
+  /** Heap growth check: minimum relative growth from the first to the last sample. */
+  private static final double HEAP_GROWTH = .1;
+
+  /** Latency check: maximum ratio of last to first quarter mean frame time. */
+  private static final double LATENCY_GROWTH = 1.2;
+
+  private static class Sample {
+    double elapsed;
+    long heapUsed;
+    long heapAfterGc;
+    long gcCount;
+    long gcTime;
+    long maxPause;
+    int frames;
+    double meanFrameTime;
+    double p95FrameTime;
+  }
+
+  /** Render times of the frames since the last sample. */
+  private final List<Double> frameTimes = new ArrayList<>();
+
+  private long lastInputCount = -1;
+
+  /** Longest collection since the last sample, in milliseconds. */
+  private long maxPause = 0;
+
+  private final List<Sample> samples = new ArrayList<>();
+
+  @Override public synchronized void frameCompleted(BitmapImage frame, double renderTime,
+      long inputCount) {
+    frameTimes.add(renderTime);
+    lastInputCount = inputCount;
+    notifyAll();
+  }
+
+  private synchronized void awaitFrame(long inputCount) throws InterruptedException {
+    while (lastInputCount < inputCount) {
+      wait();
+    }
+  }
+
+  private synchronized void gcCompleted(GarbageCollectionNotificationInfo info) {
+    // The collections forced by sample() happen while no frame is rendered.
+    if (!info.getGcCause().equals("System.gc()")) {
+      maxPause = Math.max(maxPause, info.getGcInfo().getDuration());
+    }
+  }
+
+  public static void main(String[] args) throws FileNotFoundException, InterruptedException {
+    long duration = 600;
+    long interval = 10;
+    long seed = System.currentTimeMillis();
+    int threads = Runtime.getRuntime().availableProcessors();
+    String out = null;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-duration":
+          duration = parseTime(args[i + 1]);
+          break;
+        case "-interval":
+          interval = parseTime(args[i + 1]);
+          break;
+        case "-seed":
+          seed = Long.parseLong(args[i + 1]);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "-out":
+          out = args[i + 1];
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+
+    SoakTest soak = new SoakTest();
+    soak.listenForCollections();
+    TestRenderThread thread = new TestRenderThread(soak, 400, 400);
+    TileScheduler scheduler = threads > 0 ? new TileScheduler(threads) : null;
+    thread.setScheduler(scheduler);
+    if (TraceStats.ENABLED) {
+      thread.setStatsMonitor(TraceStatsMonitor.get());
+    }
+    thread.start();
+
+    System.out.format("Soak test for %ds, sampling every %ds, seed %d%n", duration, interval,
+        seed);
+    soak.run(thread, new Random(seed), duration * 1000, interval * 1000);
+    thread.interrupt();
+    thread.join();
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+
+    boolean passed;
+    if (out != null) {
+      try (PrintStream report = new PrintStream(out)) {
+        passed = soak.report(report, seed);
+      }
+      System.out.println("Report written to " + out);
+    } else {
+      passed = soak.report(System.out, seed);
+    }
+    System.exit(passed ? 0 : 2);
+  }
+
+  /** Parse a time in seconds, with an optional s, m or h suffix. */
+  private static long parseTime(String text) {
+    char unit = text.charAt(text.length() - 1);
+    switch (unit) {
+      case 's':
+        return Long.parseLong(text.substring(0, text.length() - 1));
+      case 'm':
+        return 60 * Long.parseLong(text.substring(0, text.length() - 1));
+      case 'h':
+        return 3600 * Long.parseLong(text.substring(0, text.length() - 1));
+      default:
+        return Long.parseLong(text);
+    }
+  }
+
+  /** Record collection durations through the garbage collector notifications. */
+  private void listenForCollections() {
+    NotificationListener listener = (Notification notification, Object handback) -> {
+      if (notification.getType()
+          .equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+            .from((CompositeData) notification.getUserData());
+        gcCompleted(info);
+      }
+    };
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (gc instanceof NotificationEmitter) {
+        ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+      }
+    }
+  }
+
+  /**
+   * Apply random input events, each followed by waiting for its frame,
+   * until the duration has passed.
+   */
+  private void run(TestRenderThread thread, Random random, long duration, long interval)
+      throws InterruptedException {
+    String[] models = RenderModes.getNames();
+    long start = System.currentTimeMillis();
+    long nextSample = start + interval;
+    double distance = new ViewState().distance;
+    boolean compass = false;
+    while (System.currentTimeMillis() - start < duration) {
+      int action = random.nextInt(100);
+      if (action < 70) {
+        thread.panView(5 * random.nextGaussian(), 5 * random.nextGaussian());
+      } else if (action < 80) {
+        // Keep the camera at a similar distance so that frame costs stay comparable.
+        double scale = distance < .8 ? -1 : distance > 3 ? 1 : random.nextBoolean() ? 1 : -1;
+        distance = Math.max(.1, distance - .1 * scale);
+        thread.moveForward(scale);
+      } else if (action < 90) {
+        thread.setBlockId(1 + random.nextInt(255));
+      } else if (action < 95) {
+        thread.setBlockData(random.nextInt(16));
+      } else if (action < 98) {
+        thread.setModel(random.nextInt(models.length + 1) < models.length
+            ? models[random.nextInt(models.length)]
+            : "heatmap");
+      } else {
+        compass = !compass;
+        thread.enableCompass(compass);
+      }
+      awaitFrame(thread.getInputCount());
+
+      long now = System.currentTimeMillis();
+      if (now >= nextSample) {
+        Sample sample = sample((now - start) / 1000.0);
+        System.out.println(format(sample));
+        nextSample += interval;
+      }
+    }
+  }
+
+  /**
+   * Take a sample. Called between frames, while the render thread waits for
+   * input.
+   */
+  private synchronized Sample sample(double elapsed) {
+    Sample sample = new Sample();
+    sample.elapsed = elapsed;
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    sample.heapUsed = memory.getHeapMemoryUsage().getUsed();
+    // A young collection only empties the young generation, so the heap
+    // after it depends on when it happened. A full collection leaves the
+    // live objects.
+    System.gc();
+    sample.heapAfterGc = memory.getHeapMemoryUsage().getUsed();
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      sample.gcCount += Math.max(0, gc.getCollectionCount());
+      sample.gcTime += Math.max(0, gc.getCollectionTime());
+    }
+    sample.maxPause = maxPause;
+    maxPause = 0;
+    sample.frames = frameTimes.size();
+    if (!frameTimes.isEmpty()) {
+      double sum = 0;
+      for (double time : frameTimes) {
+        sum += time;
+      }
+      sample.meanFrameTime = sum / frameTimes.size();
+      Collections.sort(frameTimes);
+      sample.p95FrameTime = frameTimes.get((int) (.95 * (frameTimes.size() - 1)));
+    }
+    frameTimes.clear();
+    samples.add(sample);
+    return sample;
+  }
+
+  private static String format(Sample sample) {
+    return String.format("%8.0fs %9.1fMB %11.1fMB %7d %8dms %7dms %7d %8.2fms %8.2fms",
+        sample.elapsed, sample.heapUsed / 1e6, sample.heapAfterGc / 1e6, sample.gcCount,
+        sample.gcTime, sample.maxPause, sample.frames, sample.meanFrameTime,
+        sample.p95FrameTime);
+  }
+
+  /**
+   * Write the report.
+   *
+   * @return {@code true} if no problems were found
+   */
+  private synchronized boolean report(PrintStream out, long seed) {
+    out.format("Soak test report, seed %d%n", seed);
+    out.format("%9s %11s %13s %7s %10s %9s %7s %10s %10s%n", "time", "heap", "heap after GC",
+        "GCs", "GC time", "max pause", "frames", "mean frame", "p95 frame");
+    for (Sample sample : samples) {
+      out.println(format(sample));
+    }
+    out.println();
+
+    int first = (int) (WARMUP * samples.size());
+    List<Sample> measured = samples.subList(first, samples.size());
+    if (measured.size() < 4) {
+      out.println("Too few samples for the checks. Run longer or sample more often.");
+      return true;
+    }
+    boolean passed = true;
+
+    // Heap: the heap remaining after full collections should level off.
+    passed &= checkHeap(out, measured);
+
+    // Latency: compare the first and last quarter of the run.
+    int quarter = Math.max(1, measured.size() / 4);
+    double early = meanFrameTime(measured.subList(0, quarter));
+    double late = meanFrameTime(measured.subList(measured.size() - quarter, measured.size()));
+    boolean degraded = late > LATENCY_GROWTH * early;
+    out.format("Mean frame time: first quarter %.2fms, last quarter %.2fms (%+.0f%%): %s%n",
+        early, late, 100 * (late / early - 1),
+        degraded ? "FAIL, latency degradation" : "ok");
+    passed &= !degraded;
+
+    long maxPause = 0;
+    for (Sample sample : measured) {
+      maxPause = Math.max(maxPause, sample.maxPause);
+    }
+    Sample last = samples.get(samples.size() - 1);
+    out.format("GC: %d collections, %dms total, longest pause %dms%n", last.gcCount,
+        last.gcTime, maxPause);
+    return passed;
+  }
+
+  /**
+   * Check for steady growth of the heap remaining after full collections.
+   *
+   * @return {@code true} if the heap did not grow
+   */
+  private static boolean checkHeap(PrintStream out, List<Sample> measured) {
+    int growthSteps = 0;
+    for (int i = 1; i < measured.size(); ++i) {
+      if (measured.get(i).heapAfterGc > measured.get(i - 1).heapAfterGc) {
+        growthSteps += 1;
+      }
+    }
+    long heapStart = measured.get(0).heapAfterGc;
+    long heapEnd = measured.get(measured.size() - 1).heapAfterGc;
+    double growthFraction = growthSteps / (double) (measured.size() - 1);
+    double growth = heapStart > 0 ? (heapEnd - heapStart) / (double) heapStart : 0;
+    boolean heapGrowth = growthFraction >= HEAP_GROWTH_STEPS && growth >= HEAP_GROWTH;
+    out.format("Heap after GC: %.1fMB -> %.1fMB (%+.0f%%), grew in %.0f%% of samples: %s%n",
+        heapStart / 1e6, heapEnd / 1e6, 100 * growth, 100 * growthFraction,
+        heapGrowth ? "FAIL, monotonic heap growth" : "ok");
+    return !heapGrowth;
+  }
+
+  /** Frame-weighted mean frame time of the samples. */
+  private static double meanFrameTime(List<Sample> samples) {
+    double sum = 0;
+    int frames = 0;
+    for (Sample sample : samples) {
+      sum += sample.meanFrameTime * sample.frames;
+      frames += sample.frames;
+    }
+    return frames > 0 ? sum / frames : 0;
+  }
+}
@@ -0,0 +1,241 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pre-renders the camera states that are likely to follow the current one
+ * while the user drags the view.
+ *
+ * <p>The raw mouse movements passed to {@code panView} are recorded, and
+ * candidate states are produced by applying the same pan arithmetic to the
+ * current view. A correct prediction is therefore bitwise identical to the
+ * view the render thread asks for and is found by a plain map lookup.
+ * Predictions for other states are discarded.
+ */
+class SpeculativeRenderer {
+  /** Number of recent mouse movements used to estimate the velocity. */
+  private static final int HISTORY = 8;
+
+  /** No predictions are made if the view has not been panned for this long. */
+  private static final long IDLE_TIME = TimeUnit.MILLISECONDS.toNanos(150);
+
+  /** Number of consecutive mouse movements to predict ahead. */
+  private static final int STEPS = 2;
+
+  private final int width;
+  private final int height;
+  private final double fov;
+  private final int threads;
+  private final ExecutorService workers;
+  private final ThreadLocal<TestTracer> tracers = ThreadLocal.withInitial(TestTracer::new);
+
+  private final double[] dxHistory = new double[HISTORY];
+  private final double[] dyHistory = new double[HISTORY];
+  private int historySize = 0;
+  private int historyNext = 0;
+  private long lastPanTime = 0;
+
+  /** Pending and completed predictions, keyed by predicted view state. */
+  private final Map<ViewState, Prediction> predictions = new HashMap<>();
+
+  private static class Prediction {
+    final ViewState view;
+    final BitmapImage image;
+    boolean started = false;
+    boolean done = false;
+    boolean cancelled = false;
+    boolean failed = false;
+    int rowsDone = 0;
+
+    Prediction(ViewState view, int width, int height) {
+      this.view = view;
+      this.image = new BitmapImage(width, height);
+    }
+  }
+
+  /**
+   * @param threads number of worker threads, normally the number of spare cores
+   */
+  SpeculativeRenderer(int width, int height, double fov, int threads) {
+    this.width = width;
+    this.height = height;
+    this.fov = fov;
+    this.threads = threads;
+    AtomicInteger count = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "Speculative Render Worker " + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * Record a mouse movement passed to {@code panView}.
+   */
+  synchronized void recordPan(double dx, double dy) {
+    long now = System.nanoTime();
+    if (now - lastPanTime >= IDLE_TIME) {
+      // A new drag: earlier movements say nothing about its velocity.
+      clearHistory();
+    }
+    dxHistory[historyNext] = dx;
+    dyHistory[historyNext] = dy;
+    historyNext = (historyNext + 1) % HISTORY;
+    historySize = Math.min(HISTORY, historySize + 1);
+    lastPanTime = now;
+  }
+
+  private void clearHistory() {
+    historySize = 0;
+    historyNext = 0;
+  }
+
+  /**
+   * Take the pre-rendered frame for the given view, if it was predicted.
+   * A prediction that is still being rendered is waited for only if its
+   * remaining rows take less time than the whole frame on the live render
+   * threads; otherwise it is cancelled.
+   *
+   * @param liveThreads number of threads that render the frame if it is
+   * not taken from a prediction
+   * @return the rendered frame, or {@code null} if the view was not predicted
+   */
+  BitmapImage take(ViewState view, int liveThreads) throws InterruptedException {
+    Prediction prediction;
+    synchronized (this) {
+      prediction = predictions.remove(view);
+    }
+    if (prediction == null) {
+      return null;
+    }
+    synchronized (prediction) {
+      // Predictions are rendered by a single thread, so each remaining row
+      // costs about as much as liveThreads rows of the live frame.
+      if (!prediction.done && (!prediction.started
+          || (long) (height - prediction.rowsDone) * liveThreads > height)) {
+        prediction.cancelled = true;
+        return null;
+      }
+      while (!prediction.done) {
+        prediction.wait();
+      }
+      return prediction.failed || prediction.cancelled ? null : prediction.image;
+    }
+  }
+
+  /**
+   * Start rendering the likely next views following the given view.
+   * Predictions that no longer match are discarded.
+   */
+  void predict(ViewState view) {
+    List<ViewState> candidates = new ArrayList<>();
+    synchronized (this) {
+      if (System.nanoTime() - lastPanTime >= IDLE_TIME) {
+        // The drag has ended.
+        clearHistory();
+      }
+      if (historySize > 0) {
+        int last = (historyNext + HISTORY - 1) % HISTORY;
+        double meanDx = 0;
+        double meanDy = 0;
+        for (int i = 0; i < historySize; ++i) {
+          meanDx += dxHistory[i];
+          meanDy += dyHistory[i];
+        }
+        // Not rounded: the movements are fractional on HiDPI screens.
+        meanDx /= historySize;
+        meanDy /= historySize;
+        ViewState lastStep = view.copy();
+        ViewState meanStep = view.copy();
+        for (int step = 0; step < STEPS; ++step) {
+          lastStep.pan(dxHistory[last], dyHistory[last], fov);
+          addCandidate(candidates, lastStep.copy());
+          meanStep.pan(meanDx, meanDy, fov);
+          addCandidate(candidates, meanStep.copy());
+        }
+      }
+
+      // Discard stale predictions.
+      Iterator<Map.Entry<ViewState, Prediction>> iter = predictions.entrySet().iterator();
+      while (iter.hasNext()) {
+        Prediction prediction = iter.next().getValue();
+        if (!candidates.contains(prediction.view)) {
+          synchronized (prediction) {
+            prediction.cancelled = true;
+          }
+          iter.remove();
+        }
+      }
+
+      for (ViewState candidate : candidates) {
+        if (!predictions.containsKey(candidate)) {
+          Prediction prediction = new Prediction(candidate, width, height);
+          predictions.put(candidate, prediction);
+          workers.submit(() -> render(prediction));
+        }
+      }
+    }
+  }
+
+  private void addCandidate(List<ViewState> candidates, ViewState candidate) {
+    if (candidates.size() < threads && !candidates.contains(candidate)) {
+      candidates.add(candidate);
+    }
+  }
+
+  private void render(Prediction prediction) {
+    synchronized (prediction) {
+      if (prediction.cancelled) {
+        return;
+      }
+      prediction.started = true;
+    }
+    try {
+      TestTracer tracer = tracers.get();
+      tracer.setState(prediction.view);
+      tracer.drawFrame(prediction.image, rows -> {
+        synchronized (prediction) {
+          prediction.rowsDone = rows;
+          return !prediction.cancelled;
+        }
+      });
+    } catch (Throwable e) {
+      prediction.failed = true;
+      throw e;
+    } finally {
+      synchronized (prediction) {
+        prediction.done = true;
+        prediction.notifyAll();
+      }
+    }
+  }
+
+  void shutdown() {
+    workers.shutdownNow();
+  }
+}
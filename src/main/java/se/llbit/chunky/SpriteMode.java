@@ -0,0 +1,241 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.Texture;
+import se.llbit.chunky.world.Block;
+import se.llbit.math.Ray;
+
+/**
+ * Renders the iron sword item texture as a voxel sprite.
+ */
+public class SpriteMode implements RenderMode {
+  @Override public String getName() {
+    return "sprite";
+  }
+
+  @Override public RenderKernel createKernel(FrameContext frame) {
+    return new Kernel(TestTracer.ironSword, frame.stats);
+  }
+
+  private static final class Kernel implements RenderKernel {
+    private final Texture texture;
+    private final TraceStats stats;
+    private final Block stone = Block.get(Block.STONE_ID);
+
+    Kernel(Texture texture, TraceStats stats) {
+      this.texture = texture;
+      this.stats = stats;
+    }
+
+    @Override public boolean trace(Ray ray, double tNear, double tFar) {
+      return spriteIntersection(ray, texture);
+    }
+
+    @Override public void traceRow(RayRow row) {
+      row.traceEach(this);
+    }
+
+    boolean spriteIntersection(Ray ray, Texture texture) {
+      double ox = ray.o.x;
+      double oy = ray.o.y;
+      double oz = ray.o.z;
+      double offsetX = 0.5;
+      double offsetY = 0.5;
+      double offsetZ = 0.5;
+      double inv_size = 16;
+      double cloudTop = offsetY + 1 / inv_size;
+      double t_offset = 0;
+      if (oy < offsetY || oy > cloudTop) {
+        if (ray.d.y > 0) {
+          t_offset = (offsetY - oy) / ray.d.y;
+        } else {
+          t_offset = (cloudTop - oy) / ray.d.y;
+        }
+        if (t_offset < 0) {
+          return false;
+        }
+        // Ray is entering the sprite.
+        double x0 = (ray.d.x * t_offset + ox) * inv_size + offsetX;
+        double z0 = (ray.d.z * t_offset + oz) * inv_size + offsetZ;
+        if (inSprite(texture, x0, z0)) {
+          ray.n.set(0, -Math.signum(ray.d.y), 0);
+          ray.color.set(getColor(texture, (int) Math.floor(x0), (int) Math.floor(z0)));
+          onSpriteEnter(ray, t_offset);
+          return true;
+        }
+      } else if (inSprite(texture, ox * inv_size + offsetX, oz * inv_size + offsetZ)) {
+        // We are inside the sprite - no intersection.
+        return false;
+      }
+      double tExit;
+      if (ray.d.y > 0) {
+        tExit = (cloudTop - oy) / ray.d.y - t_offset;
+      } else {
+        tExit = (offsetY - oy) / ray.d.y - t_offset;
+      }
+      if (ray.t < tExit) {
+        tExit = ray.t;
+      }
+      double x0 = (ox + ray.d.x * t_offset) * inv_size + offsetX;
+      double z0 = (oz + ray.d.z * t_offset) * inv_size + offsetZ;
+      double xp = x0;
+      double zp = z0;
+      int ix = (int) Math.floor(xp);
+      int iz = (int) Math.floor(zp);
+      int xmod = (int) Math.signum(ray.d.x), zmod = (int) Math.signum(ray.d.z);
+      int xo = (1 + xmod) / 2, zo = (1 + zmod) / 2;
+      double dx = Math.abs(ray.d.x) * inv_size;
+      double dz = Math.abs(ray.d.z) * inv_size;
+      double t = 0;
+      int i = 0;
+      int nx = 0, nz = 0;
+      if (dx > dz) {
+        double m = dz / dx;
+        double xrem = xmod * (ix + xo - xp);
+        double zlimit = xrem * m;
+        while (t < tExit) {
+          if (TraceStats.ENABLED) {
+            stats.spriteSteps += 1;
+          }
+          double zrem = zmod * (iz + zo - zp);
+          if (zrem < zlimit) {
+            iz += zmod;
+            if (inSprite(texture, ix, iz)) {
+              t = i / dx + zrem / dz;
+              nx = 0;
+              nz = -zmod;
+              break;
+            }
+            ix += xmod;
+            if (inSprite(texture, ix, iz)) {
+              t = (i + xrem) / dx;
+              nx = -xmod;
+              nz = 0;
+              break;
+            }
+          } else {
+            ix += xmod;
+            if (inSprite(texture, ix, iz)) {
+              t = (i + xrem) / dx;
+              nx = -xmod;
+              nz = 0;
+              break;
+            }
+            if (zrem <= m) {
+              iz += zmod;
+              if (inSprite(texture, ix, iz)) {
+                t = i / dx + zrem / dz;
+                nx = 0;
+                nz = -zmod;
+                break;
+              }
+            }
+          }
+          t = i / dx;
+          i += 1;
+          zp = z0 + zmod * i * m;
+        }
+      } else {
+        double m = dx / dz;
+        double zrem = zmod * (iz + zo - zp);
+        double xlimit = zrem * m;
+        while (t < tExit) {
+          if (TraceStats.ENABLED) {
+            stats.spriteSteps += 1;
+          }
+          double xrem = xmod * (ix + xo - xp);
+          if (xrem < xlimit) {
+            ix += xmod;
+            if (inSprite(texture, ix, iz)) {
+              t = i / dz + xrem / dx;
+              nx = -xmod;
+              nz = 0;
+              break;
+            }
+            iz += zmod;
+            if (inSprite(texture, ix, iz)) {
+              t = (i + zrem) / dz;
+              nx = 0;
+              nz = -zmod;
+              break;
+            }
+          } else {
+            iz += zmod;
+            if (inSprite(texture, ix, iz)) {
+              t = (i + zrem) / dz;
+              nx = 0;
+              nz = -zmod;
+              break;
+            }
+            if (xrem <= m) {
+              ix += xmod;
+              if (inSprite(texture, ix, iz)) {
+                t = i / dz + xrem / dx;
+                nx = -xmod;
+                nz = 0;
+                break;
+              }
+            }
+          }
+          t = i / dz;
+          i += 1;
+          xp = x0 + xmod * i * m;
+        }
+      }
+      int ny = 0;
+      if (t > tExit) {
+        return false;
+      }
+      ray.n.set(nx, ny, nz);
+      // Side intersection.
+      ray.color.set(getColor(texture, ix, iz));
+      onSpriteEnter(ray, t + t_offset);
+      return true;
+    }
+
+    private void onSpriteEnter(Ray ray, double t) {
+      ray.t = t;
+      ray.o.scaleAdd(t, ray.d);
+      ray.setPrevMaterial(Block.AIR, 0);
+      ray.setCurrentMaterial(stone, 0);
+    }
+
+    private boolean inSprite(Texture texture, double x, double z) {
+      return inSprite(texture, (int) Math.floor(x), (int) Math.floor(z));
+    }
+
+    private boolean inSprite(Texture texture, int x, int z) {
+      if (x < 0 || x >= texture.getWidth() || z < 0 || z >= texture.getHeight()) {
+        return false;
+      }
+      if (TraceStats.ENABLED) {
+        stats.textureFetches += 1;
+      }
+      float[] color = texture.getColor(x, z);
+      return color[3] != 0;
+    }
+
+    private float[] getColor(Texture texture, int x, int z) {
+      if (x < 0 || x >= texture.getWidth() || z < 0 || z >= texture.getHeight()) {
+        throw new Error("Can't compute texture color");
+      }
+      if (TraceStats.ENABLED) {
+        stats.textureFetches += 1;
+      }
+      return texture.getColor(x, z);
+    }
+  }
+}
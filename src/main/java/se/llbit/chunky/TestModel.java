@@ -41,6 +41,9 @@ public class TestModel {
 
   Texture[] tex;
 
+  /** Ray tracing counters, only updated if {@link TraceStats#ENABLED} is set. */
+  TraceStats stats = new TraceStats();
+
   private static final float[][] wireColor = new float[16][3];
 
   static {
@@ -147,7 +150,13 @@ public class TestModel {
     int connection = 0xF & (data >> BlockData.RSW_EAST_CONNECTION);
     ray.t = Double.POSITIVE_INFINITY;
     Quad quad = quads[connection];
+    if (TraceStats.ENABLED) {
+      stats.quadTests += 1;
+    }
     if (quad.intersect(ray)) {
+      if (TraceStats.ENABLED) {
+        stats.textureFetches += 1;
+      }
       float[] color = tex[connection].getColor(ray.u, ray.v);
       if (color[3] > Ray.EPSILON) {
         ray.color.x = color[0] * wireColor[power][0];
@@ -160,7 +169,13 @@ public class TestModel {
       }
     }
     if ((data & (1 << BlockData.RSW_EAST_SIDE)) != 0) {
+      if (TraceStats.ENABLED) {
+        stats.quadTests += 1;
+      }
       if (eastSide.intersect(ray)) {
+        if (TraceStats.ENABLED) {
+          stats.textureFetches += 1;
+        }
         float[] color = Texture.redstoneWire.getColor(ray.u, ray.v);
         if (color[3] > Ray.EPSILON) {
           ray.color.x = color[0] * wireColor[power][0];
@@ -174,7 +189,13 @@ public class TestModel {
       }
     }
     if ((data & (1 << BlockData.RSW_WEST_SIDE)) != 0) {
+      if (TraceStats.ENABLED) {
+        stats.quadTests += 1;
+      }
       if (westSide.intersect(ray)) {
+        if (TraceStats.ENABLED) {
+          stats.textureFetches += 1;
+        }
         float[] color = Texture.redstoneWire.getColor(ray.u, ray.v);
         if (color[3] > Ray.EPSILON) {
           ray.color.x = color[0] * wireColor[power][0];
@@ -188,7 +209,13 @@ public class TestModel {
       }
     }
     if ((data & (1 << BlockData.RSW_NORTH_SIDE)) != 0) {
+      if (TraceStats.ENABLED) {
+        stats.quadTests += 1;
+      }
       if (northSide.intersect(ray)) {
+        if (TraceStats.ENABLED) {
+          stats.textureFetches += 1;
+        }
         float[] color = Texture.redstoneWire.getColor(ray.u, ray.v);
         if (color[3] > Ray.EPSILON) {
           ray.color.x = color[0] * wireColor[power][0];
@@ -202,7 +229,13 @@ public class TestModel {
       }
     }
     if ((data & (1 << BlockData.RSW_SOUTH_SIDE)) != 0) {
+      if (TraceStats.ENABLED) {
+        stats.quadTests += 1;
+      }
       if (southSide.intersect(ray)) {
+        if (TraceStats.ENABLED) {
+          stats.textureFetches += 1;
+        }
         float[] color = Texture.redstoneWire.getColor(ray.u, ray.v);
         if (color[3] > Ray.EPSILON) {
           ray.color.x = color[0] * wireColor[power][0];
@@ -14,38 +14,14 @@
  */
 package se.llbit.chunky;
 
-import javafx.scene.image.PixelFormat;
-import javafx.scene.image.WritableImage;
-import javafx.scene.image.WritablePixelFormat;
-import org.apache.commons.math3.util.FastMath;
-import se.llbit.chunky.renderer.scene.Camera;
 import se.llbit.chunky.resources.BitmapImage;
-import se.llbit.chunky.resources.MinecraftFinder;
-import se.llbit.chunky.resources.Texture;
-import se.llbit.chunky.resources.TexturePackLoader;
-import se.llbit.chunky.resources.texturepack.SimpleTexture;
-import se.llbit.chunky.resources.texturepack.TextureLoader;
-import se.llbit.chunky.world.Block;
-import se.llbit.chunky.world.BlockData;
-import se.llbit.math.ColorUtil;
-import se.llbit.math.Matrix3;
 import se.llbit.math.QuickMath;
-import se.llbit.math.Ray;
-import se.llbit.math.Vector3;
 
-import java.nio.IntBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
 
 class TestRenderThread extends Thread {
-  private final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbInstance();
-
-  private TestRenderer testRenderer;
-
-  /**
-   * Mock scene object required by some block renderers.
-   */
-  private final se.llbit.chunky.renderer.scene.Scene scene;
+  private final FrameListener listener;
 
   /**
    * This lock is held whenever changes are made to the scene state.
@@ -54,386 +30,275 @@ class TestRenderThread extends Thread {
 
   private final Object renderLock = new Object();
 
-  private final WritableImage image;
-
   // TODO: handle canvas resizing.
   private final int width;
   private final int height;
   private BitmapImage buffer;
   private BitmapImage backBuffer;
 
-  private final Texture ironSword = new Texture();
-
-  private TestModel testModel = new TestModel();
+  private final TestTracer tracer = new TestTracer();
 
-  private boolean drawCompass = false;
-  private boolean drawCompassNext = false;
+  /** Ray tracing counters for the last completed frame. */
+  private final TraceStats frameStats = new TraceStats();
 
-  private int blockData = 0;
-  private int blockDataNext = 0;
+  /** Receives the frame counters if {@link TraceStats#ENABLED} is set. */
+  private TraceStatsMonitor statsMonitor = null;
 
-  private int blockId = Block.GRASS_ID;
-  private int blockIdNext = Block.GRASS_ID;
+  /** The view state used for the current frame. */
+  private final ViewState view = new ViewState();
 
-  private String model = "block";
-  private String modelNext = "block";
+  /** The view state to be used for the next frame. */
+  private final ViewState nextView = new ViewState();
 
-  private double yaw, pitch;
   private boolean refresh = true;
-  private final Vector3 camPos = new Vector3();
   private final double fov = 70;
-  private final double fovTan = Camera.clampedFovTan(fov);
-  private final Matrix3 nextTransform = new Matrix3();
-  private final Matrix3 transform = new Matrix3();
-  private double distance;
-  private double nextDistance = 1.5;
-
-  private static final Texture east = new Texture("east");
-  private static final Texture west = new Texture("west");
-  private static final Texture north = new Texture("north");
-  private static final Texture south = new Texture("south");
-
-  public TestRenderThread(TestRenderer testRenderer, int width, int height) {
-    this.testRenderer = testRenderer;
+
+  /** Pre-renders predicted views. Created when predictive mode is first enabled. */
+  private SpeculativeRenderer speculator = null;
+  private boolean predictive = false;
+
+  /** Number of input events that changed the view state. */
+  private long inputCount = 0;
+
+  /** Records input events, if non-null. */
+  private InputSession.Recorder recorder = null;
+
+  /** Shared worker pool for rendering frames, or null to render on this thread. */
+  private TileScheduler scheduler = null;
+
+  /** Per-pixel cost for heatmap mode, from the last traced frame. */
+  private float[] cost = new float[0];
+
+  /** Trace results of the last traced frame. */
+  private GBuffer gbuffer = null;
+
+  /**
+   * The view state of the last traced frame, or null if the G-buffer does
+   * not match the last frame.
+   */
+  private ViewState traced = null;
+
+  /** Resolution level of the last traced frame. */
+  private int tracedLevel = 0;
+
+  /** Idle time before a reduced resolution frame is re-rendered at full resolution. */
+  private static final long REFINE_DELAY = 200;
+
+  /** Chooses the render resolution, or null to always render at full resolution. */
+  private ResolutionController resolution = null;
+
+  /** Set when the last frame was rendered at reduced resolution. */
+  private boolean refine = false;
+
+  /** Render buffers for the reduced resolution levels. */
+  private final BitmapImage[] scaledBuffers =
+      new BitmapImage[ResolutionController.SCALES.length];
+
+  public TestRenderThread(FrameListener listener, int width, int height) {
+    this.listener = listener;
     this.width = width;
     this.height = height;
 
-    Map<String, TextureLoader> textures = new HashMap<>();
-    textures.put("iron_sword", new SimpleTexture("assets/minecraft/textures/items/iron_sword",
-        ironSword));
-    TexturePackLoader.loadTextures(MinecraftFinder.getMinecraftJar(), textures.entrySet());
+    TestTracer.loadTextures();
 
     // Initialize render buffers.
     buffer = new BitmapImage(width, height);
     backBuffer = new BitmapImage(width, height);
-    image = new WritableImage(width, height);
-
-    // Create mock scene object.
-    scene = new se.llbit.chunky.renderer.scene.Scene();
-    scene.setBiomeColorsEnabled(false);
-
-    // Initialize camera:
-    yaw = -3 * Math.PI / 4;
-    pitch = -1 * Math.PI / 6;
-    updateTransform();
   }
 
   @Override public void run() {
     try {
       while (!isInterrupted()) {
 
+        SpeculativeRenderer speculator;
+        TileScheduler scheduler;
+        TraceStatsMonitor statsMonitor;
+        ResolutionController resolution;
+        boolean refinement;
+        long inputs;
         synchronized (stateLock) {
-          awaitRefresh();
-          transform.set(nextTransform);
-          distance = nextDistance;
-          drawCompass = drawCompassNext;
-          blockId = blockIdNext;
-          blockData = blockDataNext;
-          model = modelNext;
-          testModel.setUp();
+          refinement = awaitRefresh();
+          view.set(nextView);
+          inputs = inputCount;
+          speculator = predictive ? this.speculator : null;
+          scheduler = this.scheduler;
+          statsMonitor = this.statsMonitor;
+          resolution = refinement ? null : this.resolution;
         }
 
         long time;
         synchronized (renderLock) {
           long start = System.nanoTime();
 
-          drawFrame();
+          BitmapImage target = backBuffer;
+          BitmapImage predicted = speculator != null
+              ? speculator.take(view, scheduler != null ? scheduler.getActiveThreads() : 1)
+              : null;
+          boolean composited = false;
+          if (predicted != null) {
+            System.arraycopy(predicted.data, 0, backBuffer.data, 0, backBuffer.data.length);
+            traced = null;
+          } else if (!refinement && traced != null && view.sameGeometry(traced)
+              && (traced.heatmap || !view.heatmap)) {
+            // Only the shading changed: composite the last traced frame again.
+            if (tracedLevel > 0) {
+              target = scaledBuffer(tracedLevel);
+            }
+            tracer.stats.reset();
+            composite(target);
+            composited = true;
+          } else {
+            int level = resolution != null ? resolution.getLevel() : 0;
+            if (level > 0) {
+              target = scaledBuffer(level);
+            }
+            tracer.stats.reset();
+            drawTraced(scheduler, target);
+            traced = view.copy();
+            tracedLevel = level;
+          }
 
           time = System.nanoTime() - start;
 
-          // Flip buffers.
-          BitmapImage tmp = backBuffer;
-          backBuffer = buffer;
-          buffer = tmp;
-          synchronized (image) {
-            image.getPixelWriter()
-                .setPixels(0, 0, width, height, PIXEL_FORMAT, buffer.data, 0, width);
+          if (resolution != null && predicted == null && !composited) {
+            resolution.frameCompleted(time / 1000000.0);
           }
-        }
-        testRenderer.drawImage(image, time / 1000000.0);
-      }
-    } catch (InterruptedException ignored) {
-    }
-  }
-
-  private void drawFrame() {
-    double aspect = width / (double) height;
-
-    Ray ray = new Ray();
-
-    camPos.set(0, -distance, 0);
-    transform.transform(camPos);
-    camPos.add(.5, .5, .5);
-
-    for (int y = 0; y < height; ++y) {
-
-      double rayZ = fovTan * (-0.5 + ((double) y) / height);
-
-      for (int x = 0; x < width; ++x) {
-        double rayX = fovTan * aspect * (0.5 - ((double) x) / width);
-
-        ray.setDefault();
-        ray.t = Double.POSITIVE_INFINITY;
-        ray.d.set(rayX, 1, rayZ);
-        ray.d.normalize();
-        transform.transform(ray.d);
-
-        ray.o.set(camPos);
-        trace(ray);
-
-        ray.color.x = QuickMath.min(1, FastMath.sqrt(ray.color.x));
-        ray.color.y = QuickMath.min(1, FastMath.sqrt(ray.color.y));
-        ray.color.z = QuickMath.min(1, FastMath.sqrt(ray.color.z));
-        backBuffer.setPixel(x, y, ColorUtil.getRGB(ray.color));
-      }
-    }
-  }
-
-  private void trace(Ray ray) {
-    double[] nearFar = new double[2];
-    enterBlock(ray, nearFar);
-    double tNear = nearFar[0];
-    double tFar = nearFar[1];
-
-    ray.color.set(1, 1, 1, 1);
-    renderCompass(ray);
-
-    switch (model) {
-      case "block":
-        if (tNear <= tFar && tFar >= 0) {
-          if (tNear > 0) {
-            ray.o.scaleAdd(tNear, ray.d);
-            ray.distance += tNear;
+          synchronized (stateLock) {
+            refine = target != backBuffer;
           }
 
-          ray.setPrevMaterial(Block.AIR, 0);
-          Block theBlock = Block.get(blockId);
-          ray.setCurrentMaterial(theBlock, blockId | (blockData << BlockData.OFFSET));
-          theBlock.intersect(ray, scene);
-        }
-        break;
-      case "sprite":
-        spriteIntersection(ray, ironSword);
-        break;
-      case "custom":
-        if (tNear <= tFar && tFar >= 0) {
-          if (tNear > 0) {
-            ray.o.scaleAdd(tNear, ray.d);
-            ray.distance += tNear;
+          if (TraceStats.ENABLED && predicted == null) {
+            synchronized (frameStats) {
+              frameStats.set(tracer.stats);
+            }
+            if (statsMonitor != null) {
+              statsMonitor.publish(tracer.stats, time / 1000000.0);
+            }
           }
 
-          ray.setPrevMaterial(Block.AIR, 0);
-          ray.setCurrentMaterial(Block.get(blockId), blockId | (blockData << BlockData.OFFSET));
-          testModel.intersect(ray);
+          if (target == backBuffer) {
+            // Flip buffers.
+            BitmapImage tmp = backBuffer;
+            backBuffer = buffer;
+            buffer = tmp;
+            target = buffer;
+          }
+          listener.frameCompleted(target, time / 1000000.0, inputs);
         }
-        break;
-    }
-  }
 
-  public boolean spriteIntersection(Ray ray, Texture texture) {
-    double ox = ray.o.x;
-    double oy = ray.o.y;
-    double oz = ray.o.z;
-    double offsetX = 0.5;
-    double offsetY = 0.5;
-    double offsetZ = 0.5;
-    double inv_size = 16;
-    double cloudTop = offsetY + 1 / inv_size;
-    double t_offset = 0;
-    if (oy < offsetY || oy > cloudTop) {
-      if (ray.d.y > 0) {
-        t_offset = (offsetY - oy) / ray.d.y;
-      } else {
-        t_offset = (cloudTop - oy) / ray.d.y;
-      }
-      if (t_offset < 0) {
-        return false;
+        if (speculator != null) {
+          speculator.predict(view);
+        }
       }
-      // Ray is entering the sprite.
-      double x0 = (ray.d.x * t_offset + ox) * inv_size + offsetX;
-      double z0 = (ray.d.z * t_offset + oz) * inv_size + offsetZ;
-      if (inSprite(texture, x0, z0)) {
-        ray.n.set(0, -Math.signum(ray.d.y), 0);
-        ray.color.set(getColor(texture, (int) Math.floor(x0), (int) Math.floor(z0)));
-        onSpriteEnter(ray, t_offset);
-        return true;
+    } catch (InterruptedException ignored) {
+    } finally {
+      synchronized (stateLock) {
+        if (speculator != null) {
+          speculator.shutdown();
+        }
       }
-    } else if (inSprite(texture, ox * inv_size + offsetX, oz * inv_size + offsetZ)) {
-      // We are inside the sprite - no intersection.
-      return false;
-    }
-    double tExit;
-    if (ray.d.y > 0) {
-      tExit = (cloudTop - oy) / ray.d.y - t_offset;
-    } else {
-      tExit = (offsetY - oy) / ray.d.y - t_offset;
     }
-    if (ray.t < tExit) {
-      tExit = ray.t;
+  }
+
+  /**
+   * Trace the current view into the G-buffer and the target image, on the
+   * worker pool if there is one.
+   */
+  private void drawTraced(TileScheduler scheduler, BitmapImage target)
+      throws InterruptedException {
+    if (gbuffer == null || gbuffer.width != target.width || gbuffer.height != target.height) {
+      gbuffer = new GBuffer(target.width, target.height);
     }
-    double x0 = (ox + ray.d.x * t_offset) * inv_size + offsetX;
-    double z0 = (oz + ray.d.z * t_offset) * inv_size + offsetZ;
-    double xp = x0;
-    double zp = z0;
-    int ix = (int) Math.floor(xp);
-    int iz = (int) Math.floor(zp);
-    int xmod = (int) Math.signum(ray.d.x), zmod = (int) Math.signum(ray.d.z);
-    int xo = (1 + xmod) / 2, zo = (1 + zmod) / 2;
-    double dx = Math.abs(ray.d.x) * inv_size;
-    double dz = Math.abs(ray.d.z) * inv_size;
-    double t = 0;
-    int i = 0;
-    int nx = 0, nz = 0;
-    if (dx > dz) {
-      double m = dz / dx;
-      double xrem = xmod * (ix + xo - xp);
-      double zlimit = xrem * m;
-      while (t < tExit) {
-        double zrem = zmod * (iz + zo - zp);
-        if (zrem < zlimit) {
-          iz += zmod;
-          if (inSprite(texture, ix, iz)) {
-            t = i / dx + zrem / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-          ix += xmod;
-          if (inSprite(texture, ix, iz)) {
-            t = (i + xrem) / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
-        } else {
-          ix += xmod;
-          if (inSprite(texture, ix, iz)) {
-            t = (i + xrem) / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
-          if (zrem <= m) {
-            iz += zmod;
-            if (inSprite(texture, ix, iz)) {
-              t = i / dx + zrem / dz;
-              nx = 0;
-              nz = -zmod;
-              break;
-            }
-          }
-        }
-        t = i / dx;
-        i += 1;
-        zp = z0 + zmod * i * m;
+    float[] frameCost = null;
+    if (view.heatmap) {
+      int size = target.width * target.height;
+      if (cost.length != size) {
+        cost = new float[size];
       }
+      frameCost = cost;
+    }
+    if (scheduler != null) {
+      scheduler.render(this, view, target, frameCost, gbuffer, tracer.stats);
     } else {
-      double m = dx / dz;
-      double zrem = zmod * (iz + zo - zp);
-      double xlimit = zrem * m;
-      while (t < tExit) {
-        double xrem = xmod * (ix + xo - xp);
-        if (xrem < xlimit) {
-          ix += xmod;
-          if (inSprite(texture, ix, iz)) {
-            t = i / dz + xrem / dx;
-            nx = -xmod;
-            nz = 0;
-            break;
-          }
-          iz += zmod;
-          if (inSprite(texture, ix, iz)) {
-            t = (i + zrem) / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-        } else {
-          iz += zmod;
-          if (inSprite(texture, ix, iz)) {
-            t = (i + zrem) / dz;
-            nx = 0;
-            nz = -zmod;
-            break;
-          }
-          if (xrem <= m) {
-            ix += xmod;
-            if (inSprite(texture, ix, iz)) {
-              t = i / dz + xrem / dx;
-              nx = -xmod;
-              nz = 0;
-              break;
-            }
-          }
-        }
-        t = i / dz;
-        i += 1;
-        xp = x0 + xmod * i * m;
-      }
+      tracer.setState(view);
+      tracer.drawRegion(target, frameCost, gbuffer, 0, 0, target.width, target.height);
     }
-    int ny = 0;
-    if (t > tExit) {
-      return false;
+    if (view.heatmap) {
+      Heatmap.apply(target, cost, view.heatmapOverlay);
     }
-    ray.n.set(nx, ny, nz);
-    // Side intersection.
-    ray.color.set(getColor(texture, ix, iz));
-    onSpriteEnter(ray, t + t_offset);
-    return true;
-  }
-
-  private static void onSpriteEnter(Ray ray, double t) {
-    ray.t = t;
-    ray.o.scaleAdd(t, ray.d);
-    ray.setPrevMaterial(Block.AIR, 0);
-    ray.setCurrentMaterial(Block.get(Block.STONE_ID), 0);
   }
 
-  private static boolean inSprite(Texture texture, double x, double z) {
-    return inSprite(texture, (int) Math.floor(x), (int) Math.floor(z));
+  /**
+   * Composite the target image from the G-buffer of the last traced frame,
+   * with the shading settings of the current view.
+   */
+  private void composite(BitmapImage target) {
+    tracer.composite(view, gbuffer, target);
+    if (view.heatmap) {
+      Heatmap.apply(target, cost, view.heatmapOverlay);
+    }
   }
 
-  private static boolean inSprite(Texture texture, int x, int z) {
-    if (x < 0 || x >= texture.getWidth() || z < 0 || z >= texture.getHeight()) {
-      return false;
+  /**
+   * Write the G-buffer of the last traced frame as PNG images.
+   *
+   * @return {@code false} if no frame has been traced yet
+   * @see GBuffer#export
+   */
+  public boolean exportGBuffer(File directory, String name) throws IOException {
+    synchronized (renderLock) {
+      if (gbuffer == null) {
+        return false;
+      }
+      gbuffer.export(directory, name);
+      return true;
     }
-    float[] color = texture.getColor(x, z);
-    return color[3] != 0;
   }
 
-  private static float[] getColor(Texture texture, int x, int z) {
-    if (x < 0 || x >= texture.getWidth() || z < 0 || z >= texture.getHeight()) {
-      throw new Error("Can't compute texture color");
+  private BitmapImage scaledBuffer(int level) {
+    if (scaledBuffers[level] == null) {
+      double scale = ResolutionController.SCALES[level];
+      scaledBuffers[level] = new BitmapImage(Math.max(1, (int) (width * scale)),
+          Math.max(1, (int) (height * scale)));
     }
-    return texture.getColor(x, z);
+    return scaledBuffers[level];
   }
-  private void awaitRefresh() throws InterruptedException {
+
+  /**
+   * Wait until the view needs to be rendered.
+   *
+   * @return {@code true} if the last frame was rendered at reduced
+   * resolution and has been idle long enough to be rendered again at full
+   * resolution
+   */
+  private boolean awaitRefresh() throws InterruptedException {
     synchronized (stateLock) {
+      long deadline = System.currentTimeMillis() + REFINE_DELAY;
       while (!refresh) {
-        stateLock.wait();
+        if (refine) {
+          long remaining = deadline - System.currentTimeMillis();
+          if (remaining <= 0) {
+            refine = false;
+            return true;
+          }
+          stateLock.wait(remaining);
+        } else {
+          stateLock.wait();
+        }
       }
       refresh = false;
+      return false;
     }
   }
 
-  private void updateTransform() {
-    Matrix3 tmpTransform = new Matrix3();
-
-    nextTransform.setIdentity();
-
-    // Yaw (y axis rotation).
-    tmpTransform.rotY(QuickMath.HALF_PI + yaw);
-    nextTransform.mul(tmpTransform);
-
-    // Pitch (x axis rotation).
-    tmpTransform.rotX(QuickMath.HALF_PI - pitch);
-    nextTransform.mul(tmpTransform);
-  }
-
   public void moveForward(double scale) {
     synchronized (stateLock) {
-      nextDistance -= .1 * scale;
-      nextDistance = QuickMath.max(.1, nextDistance);
+      nextView.distance -= .1 * scale;
+      nextView.distance = QuickMath.max(.1, nextView.distance);
+      inputCount += 1;
+      if (recorder != null) {
+        recorder.moveForward(scale);
+      }
     }
     refresh();
   }
@@ -447,26 +312,26 @@ class TestRenderThread extends Thread {
 
   public void panView(double dx, double dy) {
     synchronized (stateLock) {
-      double fovRad = QuickMath.degToRad(fov / 2);
-
-      yaw += (Math.PI / 250) * dx * fovRad;
-      pitch += (Math.PI / 250) * dy * fovRad;
-
-      if (yaw > QuickMath.TAU) {
-        yaw -= QuickMath.TAU;
-      } else if (yaw < -QuickMath.TAU) {
-        yaw += QuickMath.TAU;
+      nextView.pan(dx, dy, fov);
+      if (predictive) {
+        speculator.recordPan(dx, dy);
+      }
+      inputCount += 1;
+      if (recorder != null) {
+        recorder.panView(dx, dy);
       }
-
-      updateTransform();
     }
     refresh();
   }
 
   public void enableCompass(boolean enable) {
     synchronized (stateLock) {
-      if (drawCompassNext != enable) {
-        drawCompassNext = enable;
+      if (nextView.drawCompass != enable) {
+        nextView.drawCompass = enable;
+        inputCount += 1;
+        if (recorder != null) {
+          recorder.enableCompass(enable);
+        }
         refresh();
       }
     }
@@ -474,8 +339,12 @@ class TestRenderThread extends Thread {
 
   public void setBlockId(int blockId) {
     synchronized (stateLock) {
-      if (blockIdNext != blockId) {
-        blockIdNext = blockId;
+      if (nextView.blockId != blockId) {
+        nextView.blockId = blockId;
+        inputCount += 1;
+        if (recorder != null) {
+          recorder.setBlockId(blockId);
+        }
         refresh();
       }
     }
@@ -483,117 +352,157 @@ class TestRenderThread extends Thread {
 
   public void setBlockData(int data) {
     synchronized (stateLock) {
-      if (blockDataNext != data) {
-        blockDataNext = data;
+      if (nextView.blockData != data) {
+        nextView.blockData = data;
+        inputCount += 1;
+        if (recorder != null) {
+          recorder.setBlockData(data);
+        }
         refresh();
       }
     }
   }
 
-  private Ray scratchRay = new Ray();
-
-  private void renderCompass(Ray ray) {
-    scratchRay.d.set(ray.d);
-    scratchRay.o.set(0.5, 0.5, 0.5);
-    double[] near = new double[2];
-    enterBlock(scratchRay, near);
-    scratchRay.o.scaleAdd(near[1], ray.d);
-    double x = scratchRay.o.x;
-    double y = scratchRay.o.y;
-    double z = scratchRay.o.z;
-    if (drawCompass) {
-      if (x < Ray.EPSILON) {
-        west.getColor(z, y, ray.color);
-      } else if (x > 1 - Ray.EPSILON) {
-        east.getColor(z, y, ray.color);
-      } else if (z > 1 - Ray.EPSILON) {
-        south.getColor(1 - x, y, ray.color);
-      } else if (z < Ray.EPSILON) {
-        north.getColor(x, y, ray.color);
-      }
-    } else {
-      ray.color.set(x, y, z, 1);
+  /**
+   * @return a summary of the ray tracing counters for the last frame
+   */
+  public String getFrameStats() {
+    synchronized (frameStats) {
+      return frameStats.summary();
     }
   }
 
   /**
-   * Advance the ray until it enters the center voxel.
+   * @return the number of input events that have changed the view state.
+   * Input methods that do not change the state are not counted.
    */
-  private void enterBlock(Ray ray, double[] nearFar) {
-    double t1, t2;
-    double tNear = Double.NEGATIVE_INFINITY;
-    double tFar = Double.POSITIVE_INFINITY;
-    Vector3 d = ray.d;
-    Vector3 o = ray.o;
-
-    if (d.x != 0) {
-      t1 = -o.x / d.x;
-      t2 = (1 - o.x) / d.x;
-
-      if (t1 > t2) {
-        double t = t1;
-        t1 = t2;
-        t2 = t;
-      }
+  public long getInputCount() {
+    synchronized (stateLock) {
+      return inputCount;
+    }
+  }
 
-      if (t1 > tNear) {
-        tNear = t1;
-      }
-      if (t2 < tFar) {
-        tFar = t2;
-      }
+  /**
+   * Publish the ray tracing counters of each frame to the given monitor,
+   * or stop publishing if the monitor is null.
+   */
+  public void setStatsMonitor(TraceStatsMonitor monitor) {
+    synchronized (stateLock) {
+      statsMonitor = monitor;
     }
+  }
 
-    if (d.y != 0) {
-      t1 = -o.y / d.y;
-      t2 = (1 - o.y) / d.y;
+  /**
+   * Render frames on a shared worker pool instead of on this thread.
+   * A null scheduler switches back to rendering on this thread.
+   */
+  public void setScheduler(TileScheduler scheduler) {
+    synchronized (stateLock) {
+      this.scheduler = scheduler;
+    }
+  }
 
-      if (t1 > t2) {
-        double t = t1;
-        t1 = t2;
-        t2 = t;
+  /**
+   * Adjust the render resolution to keep frame render times within the
+   * given budget, in milliseconds. A budget of zero or less always renders
+   * at full resolution.
+   */
+  public void setFrameBudget(double budget) {
+    synchronized (stateLock) {
+      if (budget <= 0) {
+        resolution = null;
+      } else if (resolution == null || resolution.getBudget() != budget) {
+        resolution = new ResolutionController(budget);
       }
+      refresh();
+    }
+  }
 
-      if (t1 > tNear) {
-        tNear = t1;
-      }
-      if (t2 < tFar) {
-        tFar = t2;
-      }
+  /**
+   * Set the camera orientation. Angles are in radians.
+   */
+  public void setOrientation(double yaw, double pitch) {
+    synchronized (stateLock) {
+      nextView.yaw = yaw;
+      nextView.pitch = pitch;
+      refresh();
     }
+  }
 
-    if (d.z != 0) {
-      t1 = -o.z / d.z;
-      t2 = (1 - o.z) / d.z;
+  /**
+   * Start recording input events to the given recorder, or stop recording
+   * if the recorder is null.
+   */
+  public void setRecorder(InputSession.Recorder recorder) {
+    synchronized (stateLock) {
+      this.recorder = recorder;
+    }
+  }
 
-      if (t1 > t2) {
-        double t = t1;
-        t1 = t2;
-        t2 = t;
-      }
+  public int getBlockId() {
+    synchronized (stateLock) {
+      return view.blockId;
+    }
+  }
 
-      if (t1 > tNear) {
-        tNear = t1;
+  /**
+   * Select the model to render. The special model "heatmap" shows the
+   * per-pixel cost of the previously selected model.
+   */
+  public void setModel(String model) {
+    synchronized (stateLock) {
+      boolean heatmap = model.equals("heatmap");
+      if (heatmap ? nextView.heatmap : !nextView.heatmap && nextView.model.equals(model)) {
+        return;
       }
-      if (t2 < tFar) {
-        tFar = t2;
+      if (heatmap) {
+        nextView.heatmap = true;
+      } else {
+        nextView.heatmap = false;
+        nextView.model = model;
+      }
+      inputCount += 1;
+      if (recorder != null) {
+        recorder.setModel(model);
       }
+      refresh();
     }
+  }
 
-    nearFar[0] = tNear;
-    nearFar[1] = tFar;
+  /**
+   * Enable pre-rendering of predicted views while the view is being dragged.
+   *
+   * @param threads number of pre-rendering threads. Only used when
+   * predictive mode is first enabled.
+   */
+  public void setPredictive(boolean enable, int threads) {
+    synchronized (stateLock) {
+      if (enable && speculator == null) {
+        speculator = new SpeculativeRenderer(width, height, fov, threads);
+      }
+      predictive = enable;
+    }
   }
 
-  public int getBlockId() {
+  /**
+   * Set the JSON block model rendered in the custom model mode.
+   * An empty name selects the redstone wire test model.
+   */
+  public void setCustomModel(String name) {
     synchronized (stateLock) {
-      return blockId;
+      if (!nextView.customModel.equals(name)) {
+        nextView.customModel = name;
+        refresh();
+      }
     }
   }
 
-  public void setModel(String model) {
+  public void setHeatmapOverlay(boolean overlay) {
     synchronized (stateLock) {
-      modelNext = model;
-      refresh();
+      if (nextView.heatmapOverlay != overlay) {
+        nextView.heatmapOverlay = overlay;
+        refresh();
+      }
     }
   }
 }
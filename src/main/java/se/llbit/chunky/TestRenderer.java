@@ -22,42 +22,178 @@ import javafx.fxml.Initializable;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
-import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
+import se.llbit.chunky.resources.BitmapImage;
 import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.math.QuickMath;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.IntBuffer;
 import java.util.ResourceBundle;
 import java.util.function.Consumer;
 
 public class TestRenderer extends Application implements Initializable {
+  private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT =
+      PixelFormat.getIntArgbInstance();
 
-  private final TestRenderThread renderThread;
+  /**
+   * A camera view shown on one canvas. Each view has its own render thread,
+   * buffers and trace statistics MBean; all views render on the shared tile
+   * scheduler.
+   */
+  private class View implements FrameListener {
+    final String name;
+    final TestRenderThread renderThread;
+    final WritableImage image = new WritableImage(400, 400);
+    Canvas canvas;
+
+    /** Size of the last frame, which is smaller than the canvas at reduced resolution. */
+    private int frameWidth, frameHeight;
+
+    private final Object drawLock = new Object();
+    private volatile boolean drawing = false;
+
+    View(String name) {
+      this.name = name;
+      renderThread = new TestRenderThread(this, 400, 400);
+      renderThread.setScheduler(scheduler);
+      if (TraceStats.ENABLED) {
+        renderThread.setStatsMonitor(TraceStatsMonitor.get(name));
+      }
+    }
+
+    @Override public void frameCompleted(BitmapImage frame, double renderTime, long inputCount) {
+      synchronized (image) {
+        image.getPixelWriter()
+            .setPixels(0, 0, frame.width, frame.height, PIXEL_FORMAT, frame.data, 0, frame.width);
+        frameWidth = frame.width;
+        frameHeight = frame.height;
+      }
+      drawImage(renderTime);
+    }
+
+    private void drawImage(double time) {
+      synchronized (drawLock) {
+        if (!drawing) {
+          drawing = true;
+          Platform.runLater(() -> {
+            // Synchronize to image to ensure we are not drawing it while its contents are changing.
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            double scale;
+            synchronized (image) {
+              // Upscale reduced resolution frames to the canvas size.
+              gc.drawImage(image, 0, 0, frameWidth, frameHeight, 0, 0, canvas.getWidth(),
+                  canvas.getHeight());
+              scale = frameWidth / canvas.getWidth();
+            }
+            if (TraceStats.ENABLED) {
+              drawStatsOverlay(gc, renderThread.getFrameStats());
+            }
+            if (multiView.isSelected()) {
+              gc.setFill(Color.WHITE);
+              gc.setFont(Font.font(12));
+              gc.fillText(name, 6, canvas.getHeight() - 6);
+            }
+            if (this == focus) {
+              if (scale < 1) {
+                frameTime.setText(String.format("%.1fms (%d%%)", time, Math.round(100 * scale)));
+              } else {
+                frameTime.setText(String.format("%.1fms", time));
+              }
+            }
+            if (time > 50) {
+              System.out.format("Frame time: %.1fms%n", time);
+            }
+            drawing = false;
+          });
+        }
+      }
+    }
+  }
+
+  /** Shared worker pool for all views. */
+  private final TileScheduler scheduler =
+      new TileScheduler(Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Pre-rendering threads in predictive mode. The tile scheduler gives up
+   * the same number of workers while predictive mode is on.
+   */
+  private final int speculativeThreads = Math.max(1, scheduler.getNumThreads() / 2);
+
+  /** The free camera view. Always shown. */
+  private final View freeView;
+
+  /** Fixed camera views, shown in the multi-view layout. */
+  private final View frontView, sideView, topView;
+
+  private final View[] views;
+
+  /** The view receiving keyboard input. */
+  private View focus;
+
+  /** Input recorder, enabled by setting testrenderer.record to the output file. */
+  private InputSession.Recorder recorder = null;
   private double mouseX;
   private double mouseY;
 
-  private final Object drawLock = new Object();
-  private volatile boolean drawing = false;
-
   @FXML private Canvas canvas;
+  @FXML private Canvas frontCanvas;
+  @FXML private Canvas sideCanvas;
+  @FXML private Canvas topCanvas;
+  @FXML private CheckBox multiView;
+  @FXML private Button exportGBuffer;
   @FXML private CheckBox showCompass;
+  @FXML private CheckBox heatmapOverlay;
+  @FXML private CheckBox predictive;
   @FXML private TextField blockId;
   @FXML private TextField dataField;
   @FXML private ComboBox<String> model;
+  @FXML private TextField jsonModel;
+  @FXML private TextField frameBudget;
   @FXML private Label frameTime;
 
   public TestRenderer() throws FileNotFoundException {
     // Load the default textures:
     TexturePackLoader.loadTexturePacks(new String[0], false);
 
-    // Start rendering thread:
-    renderThread = new TestRenderThread(this, 400, 400);
+    // Create rendering threads:
+    freeView = new View("free");
+    frontView = new View("front");
+    frontView.renderThread.setOrientation(-QuickMath.HALF_PI, 0);
+    sideView = new View("side");
+    sideView.renderThread.setOrientation(0, 0);
+    topView = new View("top");
+    topView.renderThread.setOrientation(-QuickMath.HALF_PI, -QuickMath.HALF_PI);
+    views = new View[] { freeView, frontView, sideView, topView };
+    focus = freeView;
+
+    String recordFile = System.getProperty("testrenderer.record");
+    if (recordFile != null) {
+      try {
+        recorder = new InputSession.Recorder(new File(recordFile));
+        freeView.renderThread.setRecorder(recorder);
+        System.out.println("Recording input to " + recordFile);
+      } catch (IOException e) {
+        System.err.println("Failed to start input recording: " + e.getMessage());
+      }
+    }
   }
 
   public static void main(String[] args) {
@@ -71,16 +207,31 @@ public class TestRenderer extends Application implements Initializable {
     stage.setScene(new Scene(root));
     stage.setTitle("Test Renderer");
     stage.show();
-    stage.setOnHiding(event -> renderThread.interrupt());
-    renderThread.start();
+    stage.setOnHiding(event -> {
+      for (View view : views) {
+        view.renderThread.interrupt();
+      }
+      scheduler.shutdown();
+      if (recorder != null) {
+        freeView.renderThread.setRecorder(null);
+        try {
+          recorder.close();
+        } catch (IOException e) {
+          System.err.println("Failed to save input recording: " + e.getMessage());
+        }
+      }
+    });
+    for (View view : views) {
+      view.renderThread.start();
+    }
 
     stage.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
       switch (event.getCode()) {
         case W:
-          renderThread.moveForward(1);
+          focus.renderThread.moveForward(1);
           break;
         case S:
-          renderThread.moveForward(-1);
+          focus.renderThread.moveForward(-1);
           break;
         case ESCAPE:
           event.consume();
@@ -89,69 +240,139 @@ public class TestRenderer extends Application implements Initializable {
       }
     });
 
-    canvas.setOnMousePressed(event -> {
-      mouseX = event.getX();
-      mouseY = event.getY();
-    });
-
-    canvas.setOnMouseDragged(event -> {
-      double dx = event.getX() - mouseX;
-      double dy = event.getY() - mouseY;
-      mouseX = event.getX();
-      mouseY = event.getY();
-      renderThread.panView(-dx, -dy);
+    multiView.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      for (View view : views) {
+        if (view != freeView) {
+          view.canvas.setVisible(newValue);
+          view.canvas.setManaged(newValue);
+          if (newValue) {
+            syncSettings(view);
+          }
+        }
+      }
+      if (!newValue) {
+        focus = freeView;
+      }
+      stage.sizeToScene();
     });
-
-    canvas.setOnScroll(event ->
-        renderThread.moveForward(event.getDeltaY() / event.getMultiplierY()));
   }
 
   @Override public void initialize(URL location, ResourceBundle resources) {
-    showCompass.selectedProperty().addListener(
-        (observable, oldValue, newValue) -> renderThread.enableCompass(newValue));
-    blockId.setText("" + renderThread.getBlockId());
+    freeView.canvas = canvas;
+    frontView.canvas = frontCanvas;
+    sideView.canvas = sideCanvas;
+    topView.canvas = topCanvas;
+    for (View view : views) {
+      Canvas viewCanvas = view.canvas;
+      TestRenderThread renderThread = view.renderThread;
+      viewCanvas.setOnMousePressed(event -> {
+        focus = view;
+        mouseX = event.getX();
+        mouseY = event.getY();
+      });
+
+      viewCanvas.setOnMouseDragged(event -> {
+        double dx = event.getX() - mouseX;
+        double dy = event.getY() - mouseY;
+        mouseX = event.getX();
+        mouseY = event.getY();
+        renderThread.panView(-dx, -dy);
+      });
+
+      viewCanvas.setOnScroll(event ->
+          renderThread.moveForward(event.getDeltaY() / event.getMultiplierY()));
+    }
+
+    showCompass.selectedProperty().addListener((observable, oldValue, newValue) ->
+        forEachView(renderThread -> renderThread.enableCompass(newValue)));
+    blockId.setText("" + freeView.renderThread.getBlockId());
     blockId.textProperty().addListener((observable, oldValue, newValue) -> {
-      parseInteger(newValue, renderThread::setBlockId);
+      ViewState.parseInteger(newValue,
+          id -> forEachView(renderThread -> renderThread.setBlockId(id)));
     });
     dataField.setText("0");
     dataField.textProperty().addListener((observable, oldValue, newValue) -> {
-      parseInteger(newValue, renderThread::setBlockData);
+      ViewState.parseInteger(newValue,
+          data -> forEachView(renderThread -> renderThread.setBlockData(data)));
     });
-    model.getItems().addAll("block", "sprite", "custom");
+    model.getItems().addAll(RenderModes.getNames());
+    model.getItems().add("heatmap");
     model.getSelectionModel().select("block");
-    model.getSelectionModel().selectedItemProperty()
-        .addListener((observable, oldValue, newValue) -> renderThread.setModel(newValue));
+    model.getSelectionModel().selectedItemProperty().addListener(
+        (observable, oldValue, newValue) ->
+            forEachView(renderThread -> renderThread.setModel(newValue)));
+    jsonModel.textProperty().addListener((observable, oldValue, newValue) ->
+        forEachView(renderThread -> renderThread.setCustomModel(newValue.trim())));
+    predictive.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      scheduler.setActiveThreads(newValue
+          ? scheduler.getNumThreads() - speculativeThreads
+          : scheduler.getNumThreads());
+      freeView.renderThread.setPredictive(newValue, speculativeThreads);
+    });
+    heatmapOverlay.selectedProperty().addListener((observable, oldValue, newValue) ->
+        forEachView(renderThread -> renderThread.setHeatmapOverlay(newValue)));
+    frameBudget.textProperty().addListener((observable, oldValue, newValue) ->
+        forEachView(renderThread -> renderThread.setFrameBudget(parseBudget(newValue))));
+    exportGBuffer.setOnAction(event -> {
+      DirectoryChooser chooser = new DirectoryChooser();
+      chooser.setTitle("Export G-buffer");
+      File directory = chooser.showDialog(canvas.getScene().getWindow());
+      if (directory != null) {
+        try {
+          if (focus.renderThread.exportGBuffer(directory, focus.name)) {
+            System.out.println("G-buffer exported to " + directory);
+          }
+        } catch (IOException e) {
+          System.err.println("Failed to export G-buffer: " + e.getMessage());
+        }
+      }
+    });
   }
 
-  static void parseInteger(String text, Consumer<Integer> consumer) {
+  /**
+   * @return the frame time budget in milliseconds, or 0 to disable
+   * dynamic resolution
+   */
+  private static double parseBudget(String text) {
     try {
-      if (text.startsWith("0x")) {
-        consumer.accept(Integer.parseInt(text.substring(2), 16));
-      } else if (text.startsWith("0b")) {
-        consumer.accept(Integer.parseInt(text.substring(2), 2));
-      } else {
-        consumer.accept(Integer.parseInt(text));
-      }
-    } catch (NumberFormatException ignored) {
+      return text.trim().isEmpty() ? 0 : Double.parseDouble(text.trim());
+    } catch (NumberFormatException e) {
+      return 0;
     }
   }
 
-  void drawImage(Image image, double time) {
-    synchronized (drawLock) {
-      if (!drawing) {
-        drawing = true;
-        Platform.runLater(() -> {
-          // Synchronize to image to ensure we are not drawing it while its contents are changing.
-          synchronized (image) {
-            canvas.getGraphicsContext2D().drawImage(image, 0, 0);
-          }
-          frameTime.setText(String.format("%.1fms", time));
-          if (time > 50) {
-            System.out.format("Frame time: %.1fms%n", time);
-          }
-          drawing = false;
-        });
+  /**
+   * Apply a setting change to the visible views. Hidden views are updated
+   * when they are shown.
+   */
+  private void forEachView(Consumer<TestRenderThread> action) {
+    for (View view : views) {
+      if (view == freeView || multiView.isSelected()) {
+        action.accept(view.renderThread);
       }
     }
   }
+
+  /** Copy the current settings to a view that is being shown. */
+  private void syncSettings(View view) {
+    TestRenderThread renderThread = view.renderThread;
+    renderThread.enableCompass(showCompass.isSelected());
+    ViewState.parseInteger(blockId.getText(), renderThread::setBlockId);
+    ViewState.parseInteger(dataField.getText(), renderThread::setBlockData);
+    renderThread.setModel(model.getSelectionModel().getSelectedItem());
+    renderThread.setCustomModel(jsonModel.getText().trim());
+    renderThread.setHeatmapOverlay(heatmapOverlay.isSelected());
+    renderThread.setFrameBudget(parseBudget(frameBudget.getText()));
+  }
+
+  private static void drawStatsOverlay(GraphicsContext gc, String stats) {
+    String[] lines = stats.split("\\R");
+    gc.setFill(Color.color(0, 0, 0, 0.6));
+    gc.fillRect(4, 4, 170, 14 * lines.length + 6);
+    gc.setFill(Color.WHITE);
+    gc.setFont(Font.font("Monospaced", 11));
+    for (int i = 0; i < lines.length; ++i) {
+      gc.fillText(lines[i], 8, 17 + 14 * i);
+    }
+  }
 }
@@ -0,0 +1,373 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import org.apache.commons.math3.util.FastMath;
+import se.llbit.chunky.renderer.scene.Camera;
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.MinecraftFinder;
+import se.llbit.chunky.resources.Texture;
+import se.llbit.chunky.resources.TexturePackLoader;
+import se.llbit.chunky.resources.texturepack.SimpleTexture;
+import se.llbit.chunky.resources.texturepack.TextureLoader;
+import se.llbit.math.ColorUtil;
+import se.llbit.math.Matrix3;
+import se.llbit.math.QuickMath;
+import se.llbit.math.Ray;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Traces the test scene for a given view state.
+ *
+ * <p>A tracer keeps scratch state between rays, so each rendering thread
+ * needs its own tracer instance.
+ */
+class TestTracer {
+  private static final double fov = 70;
+  private static final double fovTan = Camera.clampedFovTan(fov);
+
+  /** Texture for the sprite mode. */
+  static final Texture ironSword = new Texture();
+  private static boolean texturesLoaded = false;
+
+  private final TestModel testModel = new TestModel();
+
+  /** Ray tracing counters, only updated if {@link TraceStats#ENABLED} is set. */
+  final TraceStats stats = new TraceStats();
+
+  /** Frame settings passed to the render mode. */
+  private final FrameContext frame;
+
+  /** Traces rays for the current frame, created by the selected render mode. */
+  private RenderKernel kernel;
+
+  /** The row of primary rays passed to the kernel. */
+  private final RayRow row = new RayRow(stats);
+
+  private final Matrix3 transform = new Matrix3();
+  private final Vector3 camPos = new Vector3();
+  private double distance;
+  private boolean drawCompass = false;
+  private boolean heatmap = false;
+  private boolean heatmapOverlay = false;
+
+  /** Per-pixel trace cost in nanoseconds, used in heatmap mode. */
+  private float[] cost = new float[0];
+
+  /** Trace results for {@link #drawFrame} and {@link #drawTile}. */
+  private GBuffer gbuffer = null;
+
+  /**
+   * Per-row ray batch for the slab test kernels: camera origin, ray
+   * directions, the block entry and exit distances, and the compass exit
+   * distance.
+   */
+  private double[] camX = new double[0], camY = camX, camZ = camX, center = camX;
+  private double[] rowDx = camX, rowDy = camX, rowDz = camX;
+  private double[] rowNear = camX, rowFar = camX, compassNear = camX, compassFar = camX;
+
+  private static final Texture east = new Texture("east");
+  private static final Texture west = new Texture("west");
+  private static final Texture north = new Texture("north");
+  private static final Texture south = new Texture("south");
+
+  public TestTracer() {
+    // Create mock scene object, required by some block renderers.
+    se.llbit.chunky.renderer.scene.Scene scene = new se.llbit.chunky.renderer.scene.Scene();
+    scene.setBiomeColorsEnabled(false);
+
+    testModel.stats = stats;
+    frame = new FrameContext(stats, testModel, scene);
+    kernel = RenderModes.get(RenderModes.DEFAULT).createKernel(frame);
+  }
+
+  /**
+   * Load the extra textures used by the tracer. The default texture pack
+   * must be loaded before calling this.
+   */
+  static synchronized void loadTextures() {
+    if (!texturesLoaded) {
+      Map<String, TextureLoader> textures = new HashMap<>();
+      textures.put("iron_sword", new SimpleTexture("assets/minecraft/textures/items/iron_sword",
+          ironSword));
+      TexturePackLoader.loadTextures(MinecraftFinder.getMinecraftJar(), textures.entrySet());
+      texturesLoaded = true;
+    }
+  }
+
+  /**
+   * Update the camera and scene settings used for the next frame.
+   */
+  void setState(ViewState state) {
+    setShading(state);
+    frame.setView(state);
+    kernel = RenderModes.get(state.model).createKernel(frame);
+  }
+
+  /**
+   * Update the camera and shading settings, without preparing the scene
+   * for tracing. Enough for compositing.
+   */
+  private void setShading(ViewState state) {
+    state.getTransform(transform);
+    distance = state.distance;
+    drawCompass = state.drawCompass;
+    heatmap = state.heatmap;
+    heatmapOverlay = state.heatmapOverlay;
+  }
+
+  void drawFrame(BitmapImage target) {
+    drawFrame(target, null);
+  }
+
+  /**
+   * Render a frame row by row. After each row the progress callback is
+   * called with the number of finished rows; if it returns {@code false}
+   * the frame is abandoned.
+   *
+   * @param progress progress callback, or {@code null} to render the frame
+   * in one pass
+   * @return {@code false} if the frame was abandoned
+   */
+  boolean drawFrame(BitmapImage target, IntPredicate progress) {
+    GBuffer gbuffer = scratchGBuffer(target.width, target.height);
+    float[] frameCost = null;
+    if (heatmap) {
+      int size = target.width * target.height;
+      if (cost.length != size) {
+        cost = new float[size];
+      }
+      frameCost = cost;
+    }
+    if (progress == null) {
+      drawRegion(target, frameCost, gbuffer, 0, 0, target.width, target.height);
+    } else {
+      for (int y = 0; y < target.height; ++y) {
+        drawRegion(target, frameCost, gbuffer, 0, y, target.width, y + 1);
+        if (!progress.test(y + 1)) {
+          return false;
+        }
+      }
+    }
+    if (heatmap) {
+      Heatmap.apply(target, cost, heatmapOverlay);
+    }
+    return true;
+  }
+
+  /**
+   * Render the pixels (x, y) with x0 &lt;= x &lt; x1 and y0 &lt;= y &lt; y1
+   * of the target image.
+   *
+   * @param cost if non-null, the trace time for each pixel is stored in this
+   * array, indexed like the image pixels
+   * @param gbuffer receives the trace results, must have the same size as
+   * the target image
+   */
+  void drawRegion(BitmapImage target, float[] cost, GBuffer gbuffer, int x0, int y0, int x1,
+      int y1) {
+    drawRegion(target, 0, 0, target.width, target.height, cost, gbuffer, x0, y0, x1, y1);
+  }
+
+  /**
+   * Render the pixels (x, y) with x0 &lt;= x &lt; x1 and y0 &lt;= y &lt; y1
+   * of a width by height frame into a tile image. Pixel (x, y) is stored at
+   * (x - x0, y - y0) in the tile.
+   */
+  void drawTile(BitmapImage tile, int width, int height, int x0, int y0, int x1, int y1) {
+    drawRegion(tile, x0, y0, width, height, null, scratchGBuffer(tile.width, tile.height),
+        x0, y0, x1, y1);
+  }
+
+  private GBuffer scratchGBuffer(int width, int height) {
+    if (gbuffer == null || gbuffer.width != width || gbuffer.height != height) {
+      gbuffer = new GBuffer(width, height);
+    }
+    return gbuffer;
+  }
+
+  /**
+   * @param offsetX horizontal offset of the target image in the frame
+   * @param offsetY vertical offset of the target image in the frame
+   * @param width frame width
+   * @param height frame height
+   */
+  private void drawRegion(BitmapImage target, int offsetX, int offsetY, int width, int height,
+      float[] cost, GBuffer gbuffer, int x0, int y0, int x1, int y1) {
+    Ray ray = new Ray();
+
+    camPos.set(0, -distance, 0);
+    transform.transform(camPos);
+    camPos.add(.5, .5, .5);
+
+    int n = x1 - x0;
+    if (rowDx.length < n) {
+      allocateRow(n);
+    }
+    Arrays.fill(camX, 0, n, camPos.x);
+    Arrays.fill(camY, 0, n, camPos.y);
+    Arrays.fill(camZ, 0, n, camPos.z);
+
+    row.origin = camPos;
+    row.dx = rowDx;
+    row.dy = rowDy;
+    row.dz = rowDz;
+    row.near = rowNear;
+    row.far = rowFar;
+    row.size = n;
+    row.gbuffer = gbuffer;
+    row.cost = cost;
+
+    for (int y = y0; y < y1; ++y) {
+      computeRow(width, height, y, x0, x1, ray);
+
+      // Slab tests for the whole row: the block from the camera, and the
+      // compass cube from its center.
+      if (TraceStats.ENABLED) {
+        stats.slabTests += 2 * n;
+      }
+      RayKernels.unitBox(camX, camY, camZ, rowDx, rowDy, rowDz, rowNear, rowFar, n);
+      RayKernels.unitBox(center, center, center, rowDx, rowDy, rowDz, compassNear, compassFar,
+          n);
+
+      int offset = (y - offsetY) * target.width - offsetX;
+      row.gbufferOffset = offset + x0;
+      row.costOffset = y * width + x0;
+      kernel.traceRow(row);
+
+      for (int x = x0; x < x1; ++x) {
+        target.setPixel(x - offsetX, y - offsetY, shade(gbuffer, offset + x, x - x0));
+      }
+    }
+  }
+
+  /**
+   * Composite the target image from a G-buffer traced with the same camera
+   * position and scene. Only the shading settings of the view are used, so
+   * changing them does not require the scene to be traced again.
+   */
+  void composite(ViewState view, GBuffer gbuffer, BitmapImage target) {
+    setShading(view);
+    int width = target.width;
+    int height = target.height;
+    Ray ray = new Ray();
+    if (rowDx.length < width) {
+      allocateRow(width);
+    }
+    for (int y = 0; y < height; ++y) {
+      computeRow(width, height, y, 0, width, ray);
+      if (TraceStats.ENABLED) {
+        stats.slabTests += width;
+      }
+      RayKernels.unitBox(center, center, center, rowDx, rowDy, rowDz, compassNear, compassFar,
+          width);
+      for (int x = 0; x < width; ++x) {
+        target.setPixel(x, y, shade(gbuffer, y * width + x, x));
+      }
+    }
+  }
+
+  /**
+   * Compute the ray directions for the pixels x0, ..., x1 - 1 of row y of
+   * a width by height frame.
+   */
+  private void computeRow(int width, int height, int y, int x0, int x1, Ray ray) {
+    double aspect = width / (double) height;
+    double rayZ = fovTan * (-0.5 + ((double) y) / height);
+
+    for (int x = x0; x < x1; ++x) {
+      double rayX = fovTan * aspect * (0.5 - ((double) x) / width);
+
+      ray.d.set(rayX, 1, rayZ);
+      ray.d.normalize();
+      transform.transform(ray.d);
+      rowDx[x - x0] = ray.d.x;
+      rowDy[x - x0] = ray.d.y;
+      rowDz[x - x0] = ray.d.z;
+    }
+  }
+
+  private void allocateRow(int n) {
+    camX = new double[n];
+    camY = new double[n];
+    camZ = new double[n];
+    center = new double[n];
+    Arrays.fill(center, 0.5);
+    rowDx = new double[n];
+    rowDy = new double[n];
+    rowDz = new double[n];
+    rowNear = new double[n];
+    rowFar = new double[n];
+    compassNear = new double[n];
+    compassFar = new double[n];
+  }
+
+  /**
+   * Compute the final color of a pixel: the stored hit color, or the
+   * background if the ray missed.
+   *
+   * @param i index of the pixel in the current row arrays
+   */
+  private int shade(GBuffer gbuffer, int index, int i) {
+    if (gbuffer.isHit(index)) {
+      color.set(gbuffer.color[4 * index], gbuffer.color[4 * index + 1],
+          gbuffer.color[4 * index + 2], gbuffer.color[4 * index + 3]);
+    } else {
+      renderCompass(rowDx[i], rowDy[i], rowDz[i], compassFar[i]);
+    }
+    color.x = QuickMath.min(1, FastMath.sqrt(color.x));
+    color.y = QuickMath.min(1, FastMath.sqrt(color.y));
+    color.z = QuickMath.min(1, FastMath.sqrt(color.z));
+    return ColorUtil.getRGB(color);
+  }
+
+  /** Shaded pixel color. */
+  private final Vector4 color = new Vector4();
+
+  /**
+   * Set the background color for a ray direction.
+   *
+   * @param compassFar distance from the block center to the compass cube
+   * along the ray direction
+   */
+  private void renderCompass(double dx, double dy, double dz, double compassFar) {
+    double x = 0.5 + compassFar * dx;
+    double y = 0.5 + compassFar * dy;
+    double z = 0.5 + compassFar * dz;
+    if (drawCompass) {
+      if (TraceStats.ENABLED) {
+        stats.textureFetches += 1;
+      }
+      color.set(1, 1, 1, 1);
+      if (x < Ray.EPSILON) {
+        west.getColor(z, y, color);
+      } else if (x > 1 - Ray.EPSILON) {
+        east.getColor(z, y, color);
+      } else if (z > 1 - Ray.EPSILON) {
+        south.getColor(1 - x, y, color);
+      } else if (z < Ray.EPSILON) {
+        north.getColor(x, y, color);
+      }
+    } else {
+      color.set(x, y, z, 1);
+    }
+  }
+}
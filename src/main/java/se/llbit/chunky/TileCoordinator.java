@@ -0,0 +1,512 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Renders a frame, or a sweep over block IDs, on tile worker processes.
+ *
+ * <p>The image is split into tiles which are sent to {@link TileWorker}
+ * processes over sockets, and the returned pixels are assembled into one
+ * image. Workers can run on other hosts, or be started by the coordinator
+ * on this machine. Each worker render thread gets its own connection and
+ * renders one tile at a time. If a connection fails or times out, the tile
+ * it was rendering is handed to another connection.
+ *
+ * <p>Usage: {@code TileCoordinator [options]}. Options:
+ * <ul>
+ * <li>{@code -workers <host:port,...>}: workers to connect to.
+ * <li>{@code -local <n>}: start n worker processes on this machine.
+ * <li>{@code -localThreads <n>}: render threads per local worker.
+ * <li>{@code -workerHeap <size>}: maximum heap size of local workers, like 512m.
+ * <li>{@code -crashAfter <n>}: make the first local worker exit after n tiles.
+ * <li>{@code -width <n>}, {@code -height <n>}: frame size. Default 1024x1024.
+ * <li>{@code -tile <n>}: tile size. Default 64.
+ * <li>{@code -block <id>}, {@code -data <n>}, {@code -model <name>},
+ * {@code -json <model>}, {@code -compass <true|false>}: scene settings.
+ * <li>{@code -yaw <deg>}, {@code -pitch <deg>}, {@code -distance <d>}: camera.
+ * <li>{@code -sweep <first-last>}: render one cell per block ID instead of
+ * a single frame.
+ * <li>{@code -cell <n>}, {@code -columns <n>}: sweep cell size and columns.
+ * Default 128 and 16.
+ * <li>{@code -timeout <seconds>}: time to wait for a tile. Default 60.
+ * <li>{@code -out <file>}: output PNG file. Default render.png.
+ * </ul>
+ */
+public class TileCoordinator implements AutoCloseable {
+  /** Part of a frame to render, and where to put it in the output image. */
+  static class Tile {
+    final ViewState view;
+    final int width;
+    final int height;
+    final int x0;
+    final int y0;
+    final int x1;
+    final int y1;
+    final int targetX;
+    final int targetY;
+
+    Tile(ViewState view, int width, int height, int x0, int y0, int x1, int y1, int targetX,
+        int targetY) {
+      this.view = view;
+      this.width = width;
+      this.height = height;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.targetX = targetX;
+      this.targetY = targetY;
+    }
+  }
+
+  /** A connection to one render thread of a worker. */
+  private static class Connection {
+    final String worker;
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    Connection(String worker, Socket socket) throws IOException {
+      this.worker = worker;
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private final int timeout;
+
+  /** Open connections. Guarded by this. */
+  private final List<Connection> connections = new ArrayList<>();
+
+  private final List<Process> localWorkers = new ArrayList<>();
+
+  /** Tiles waiting for a connection. Guarded by this. */
+  private final Deque<Tile> pending = new ArrayDeque<>();
+  private int inFlight = 0;
+  private int completed = 0;
+  private int reassigned = 0;
+  private IOException failure = null;
+
+  /**
+   * @param timeout milliseconds to wait for a worker before its tile is reassigned
+   */
+  TileCoordinator(int timeout) {
+    this.timeout = timeout;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    ViewState view = new ViewState();
+    List<String> workers = new ArrayList<>();
+    int local = 0;
+    int localThreads = 0;
+    String workerHeap = "";
+    int crashAfter = 0;
+    int width = 1024;
+    int height = 1024;
+    int tileSize = 64;
+    int sweepFirst = -1;
+    int sweepLast = -1;
+    int cell = 128;
+    int columns = 16;
+    int timeout = 60;
+    String out = "render.png";
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "-workers":
+          for (String worker : value.split(",")) {
+            workers.add(worker.trim());
+          }
+          break;
+        case "-local":
+          local = Integer.parseInt(value);
+          break;
+        case "-localThreads":
+          localThreads = Integer.parseInt(value);
+          break;
+        case "-workerHeap":
+          workerHeap = value;
+          break;
+        case "-crashAfter":
+          crashAfter = Integer.parseInt(value);
+          break;
+        case "-width":
+          width = Integer.parseInt(value);
+          break;
+        case "-height":
+          height = Integer.parseInt(value);
+          break;
+        case "-tile":
+          tileSize = Integer.parseInt(value);
+          break;
+        case "-block":
+          ViewState.parseInteger(value, id -> view.blockId = id);
+          break;
+        case "-data":
+          ViewState.parseInteger(value, data -> view.blockData = data);
+          break;
+        case "-model":
+          view.model = value;
+          break;
+        case "-json":
+          view.customModel = value;
+          break;
+        case "-compass":
+          view.drawCompass = Boolean.parseBoolean(value);
+          break;
+        case "-yaw":
+          view.yaw = Math.toRadians(Double.parseDouble(value));
+          break;
+        case "-pitch":
+          view.pitch = Math.toRadians(Double.parseDouble(value));
+          break;
+        case "-distance":
+          view.distance = Double.parseDouble(value);
+          break;
+        case "-sweep": {
+          String[] range = value.split("-");
+          sweepFirst = Integer.parseInt(range[0]);
+          sweepLast = Integer.parseInt(range[range.length - 1]);
+          break;
+        }
+        case "-cell":
+          cell = Integer.parseInt(value);
+          break;
+        case "-columns":
+          columns = Integer.parseInt(value);
+          break;
+        case "-timeout":
+          timeout = Integer.parseInt(value);
+          break;
+        case "-out":
+          out = value;
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+    if (workers.isEmpty() && local == 0) {
+      System.err.println("No workers: use -workers host:port,... or -local n");
+      System.exit(1);
+    }
+    if (localThreads <= 0) {
+      localThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, local));
+    }
+
+    List<Tile> tiles = new ArrayList<>();
+    BitmapImage image;
+    if (sweepFirst >= 0) {
+      int count = sweepLast - sweepFirst + 1;
+      columns = Math.min(columns, count);
+      int rows = (count + columns - 1) / columns;
+      image = new BitmapImage(columns * cell, rows * cell);
+      for (int i = 0; i < count; ++i) {
+        ViewState cellView = view.copy();
+        cellView.blockId = sweepFirst + i;
+        addTiles(tiles, cellView, cell, cell, tileSize, (i % columns) * cell,
+            (i / columns) * cell);
+      }
+    } else {
+      image = new BitmapImage(width, height);
+      addTiles(tiles, view, width, height, tileSize, 0, 0);
+    }
+
+    try (TileCoordinator coordinator = new TileCoordinator(timeout * 1000)) {
+      for (int i = 0; i < local; ++i) {
+        coordinator.startLocalWorker(localThreads, workerHeap, i == 0 ? crashAfter : 0);
+      }
+      for (String worker : workers) {
+        int colon = worker.lastIndexOf(':');
+        coordinator.connect(worker.substring(0, colon),
+            Integer.parseInt(worker.substring(colon + 1)));
+      }
+      long start = System.nanoTime();
+      coordinator.render(tiles, image);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.format("Rendered %d tiles (%dx%d) in %.2fs, %d tiles reassigned%n",
+          tiles.size(), image.width, image.height, seconds, coordinator.reassigned);
+    }
+    Files.write(Paths.get(out), PngEncoder.encode(image));
+    System.out.println("Image written to " + out);
+  }
+
+  /**
+   * Split a width by height frame into tiles, placed at (targetX, targetY)
+   * in the output image.
+   */
+  static void addTiles(List<Tile> tiles, ViewState view, int width, int height, int tileSize,
+      int targetX, int targetY) {
+    for (int y0 = 0; y0 < height; y0 += tileSize) {
+      for (int x0 = 0; x0 < width; x0 += tileSize) {
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+        tiles.add(new Tile(view, width, height, x0, y0, x1, y1, targetX + x0, targetY + y0));
+      }
+    }
+  }
+
+  /**
+   * Connect to a worker. One connection is opened per worker render thread.
+   */
+  void connect(String host, int port) throws IOException {
+    String worker = host + ":" + port;
+    Connection first = open(worker, host, port);
+    int threads;
+    try {
+      threads = TileProtocol.readGreeting(first.in);
+    } catch (IOException e) {
+      first.close();
+      throw new IOException("Failed to connect to " + worker + ": " + e.getMessage(), e);
+    }
+    List<Connection> opened = new ArrayList<>();
+    opened.add(first);
+    try {
+      for (int i = 1; i < threads; ++i) {
+        Connection connection = open(worker, host, port);
+        opened.add(connection);
+        TileProtocol.readGreeting(connection.in);
+      }
+    } catch (IOException e) {
+      for (Connection connection : opened) {
+        connection.close();
+      }
+      throw new IOException("Failed to connect to " + worker + ": " + e.getMessage(), e);
+    }
+    synchronized (this) {
+      connections.addAll(opened);
+    }
+    System.out.format("Connected to %s with %d threads%n", worker, threads);
+  }
+
+  private Connection open(String worker, String host, int port) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), timeout);
+      socket.setSoTimeout(timeout);
+      return new Connection(worker, socket);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Start a worker process on this machine, using the same Java runtime and
+   * class path, and connect to it. The worker exits when the coordinator
+   * closes its standard input.
+   *
+   * @param heap maximum heap size, or empty for the default
+   * @param crashAfter make the worker exit after this many tiles, or 0
+   */
+  void startLocalWorker(int threads, String heap, int crashAfter) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java");
+    if (!heap.isEmpty()) {
+      command.add("-Xmx" + heap);
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(TileWorker.class.getName());
+    command.add("-threads");
+    command.add(String.valueOf(threads));
+    command.add("-watchStdin");
+    command.add("true");
+    if (crashAfter > 0) {
+      command.add("-crashAfter");
+      command.add(String.valueOf(crashAfter));
+    }
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    localWorkers.add(process);
+    BufferedReader output = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    String line;
+    int port = -1;
+    while (port < 0 && (line = output.readLine()) != null) {
+      if (line.startsWith("Tile worker listening on port ")) {
+        port = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+      }
+    }
+    if (port < 0) {
+      throw new IOException("Local worker exited before it was ready");
+    }
+    connect("localhost", port);
+  }
+
+  /**
+   * Render the tiles into the target image. Returns when all tiles are
+   * done.
+   *
+   * @throws IOException if a worker failed to render a tile, or if all
+   * connections failed
+   */
+  void render(List<Tile> tiles, BitmapImage target) throws IOException, InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    synchronized (this) {
+      if (connections.isEmpty()) {
+        throw new IOException("No workers connected");
+      }
+      pending.clear();
+      pending.addAll(tiles);
+      inFlight = 0;
+      completed = 0;
+      failure = null;
+      for (Connection connection : connections) {
+        threads.add(new Thread(() -> serve(connection, target),
+            "Tile Dispatcher " + threads.size()));
+      }
+    }
+    for (Thread thread : threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+    synchronized (this) {
+      while (completed < tiles.size() && failure == null) {
+        wait();
+      }
+      if (failure != null) {
+        // Blocked dispatchers are stopped when the connections are closed.
+        throw failure;
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  /** Send tiles to one connection until none are left. */
+  private void serve(Connection connection, BitmapImage target) {
+    ByteBuffer buffer = ByteBuffer.allocate(0);
+    try {
+      Tile tile;
+      while ((tile = nextTile()) != null) {
+        int width = tile.x1 - tile.x0;
+        int height = tile.y1 - tile.y0;
+        if (buffer.capacity() < 4 * width * height) {
+          buffer = ByteBuffer.allocate(4 * width * height);
+        }
+        try {
+          TileProtocol.writeRequest(connection.out, tile.view, tile.width, tile.height, tile.x0,
+              tile.y0, tile.x1, tile.y1);
+          TileProtocol.readPixels(connection.in, target, tile.targetX, tile.targetY, width,
+              height, buffer);
+        } catch (TileProtocol.TileException e) {
+          fail(new IOException("Worker " + connection.worker + " failed to render tile: "
+              + e.getMessage()));
+          return;
+        } catch (IOException e) {
+          reassign(tile, connection, e);
+          return;
+        }
+        tileDone();
+      }
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  /**
+   * Take the next pending tile. While other connections have tiles in
+   * flight, waits in case their tiles need to be reassigned.
+   *
+   * @return the next tile, or null if all tiles are done or rendering failed
+   */
+  private synchronized Tile nextTile() throws InterruptedException {
+    while (pending.isEmpty() && inFlight > 0 && failure == null) {
+      wait();
+    }
+    if (failure != null || pending.isEmpty()) {
+      return null;
+    }
+    inFlight += 1;
+    return pending.removeFirst();
+  }
+
+  private synchronized void tileDone() {
+    inFlight -= 1;
+    completed += 1;
+    notifyAll();
+  }
+
+  private synchronized void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    notifyAll();
+  }
+
+  /** Drop a failed connection and put its tile back in the queue. */
+  private synchronized void reassign(Tile tile, Connection connection, IOException e) {
+    connection.close();
+    connections.remove(connection);
+    if (failure != null) {
+      // The render was aborted and the connections closed.
+      return;
+    }
+    inFlight -= 1;
+    pending.addFirst(tile);
+    reassigned += 1;
+    System.err.format("Lost connection to %s (%s), reassigning tile%n", connection.worker,
+        e);
+    if (connections.isEmpty()) {
+      fail(new IOException("All worker connections failed", e));
+    }
+    notifyAll();
+  }
+
+  /** Close the connections and stop the local workers. */
+  @Override public synchronized void close() {
+    for (Connection connection : connections) {
+      connection.close();
+    }
+    connections.clear();
+    for (Process process : localWorkers) {
+      process.destroy();
+    }
+    localWorkers.clear();
+  }
+}
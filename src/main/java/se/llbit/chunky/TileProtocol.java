@@ -0,0 +1,154 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Messages exchanged between {@link TileCoordinator} and {@link TileWorker}.
+ *
+ * <p>When a coordinator connects, the worker sends the magic number, the
+ * protocol version and its number of render threads. The coordinator then
+ * sends tile requests, each answered with a status byte followed by the
+ * packed ARGB pixels of the tile, or by an error message.
+ */
+class TileProtocol {
+  /** "TRTW" */
+  static final int MAGIC = 0x54525457;
+  static final int VERSION = 1;
+
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+
+  private TileProtocol() {
+  }
+
+  static void writeGreeting(DataOutputStream out, int threads) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(threads);
+    out.flush();
+  }
+
+  /**
+   * @return the number of render threads of the worker
+   */
+  static int readGreeting(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a tile worker");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported tile protocol version: " + version);
+    }
+    return in.readInt();
+  }
+
+  /**
+   * Write a request for the pixels (x, y) with x0 &lt;= x &lt; x1 and
+   * y0 &lt;= y &lt; y1 of a width by height frame. The heatmap settings are
+   * not sent since the heatmap needs the cost of the whole frame.
+   */
+  static void writeRequest(DataOutputStream out, ViewState view, int width, int height, int x0,
+      int y0, int x1, int y1) throws IOException {
+    out.writeDouble(view.yaw);
+    out.writeDouble(view.pitch);
+    out.writeDouble(view.distance);
+    out.writeInt(view.blockId);
+    out.writeInt(view.blockData);
+    out.writeUTF(view.model);
+    out.writeBoolean(view.drawCompass);
+    out.writeUTF(view.customModel);
+    out.writeInt(width);
+    out.writeInt(height);
+    out.writeInt(x0);
+    out.writeInt(y0);
+    out.writeInt(x1);
+    out.writeInt(y1);
+    out.flush();
+  }
+
+  /**
+   * Read a tile request.
+   *
+   * @param region receives width, height, x0, y0, x1, y1
+   */
+  static void readRequest(DataInputStream in, ViewState view, int[] region) throws IOException {
+    view.yaw = in.readDouble();
+    view.pitch = in.readDouble();
+    view.distance = in.readDouble();
+    view.blockId = in.readInt();
+    view.blockData = in.readInt();
+    view.model = in.readUTF();
+    view.drawCompass = in.readBoolean();
+    view.customModel = in.readUTF();
+    view.heatmap = false;
+    view.heatmapOverlay = false;
+    for (int i = 0; i < 6; ++i) {
+      region[i] = in.readInt();
+    }
+  }
+
+  static void writePixels(DataOutputStream out, BitmapImage tile, ByteBuffer buffer)
+      throws IOException {
+    buffer.clear();
+    buffer.asIntBuffer().put(tile.data, 0, tile.width * tile.height);
+    out.writeByte(STATUS_OK);
+    out.write(buffer.array(), 0, 4 * tile.width * tile.height);
+    out.flush();
+  }
+
+  static void writeError(DataOutputStream out, String message) throws IOException {
+    out.writeByte(STATUS_ERROR);
+    out.writeUTF(message);
+    out.flush();
+  }
+
+  /**
+   * Read a tile response into the target image at (x, y).
+   *
+   * @throws TileException if the worker could not render the tile
+   */
+  static void readPixels(DataInputStream in, BitmapImage target, int x, int y, int width,
+      int height, ByteBuffer buffer) throws IOException {
+    byte status = in.readByte();
+    if (status == STATUS_ERROR) {
+      throw new TileException(in.readUTF());
+    } else if (status != STATUS_OK) {
+      throw new IOException("Unknown tile status: " + status);
+    }
+    buffer.clear();
+    in.readFully(buffer.array(), 0, 4 * width * height);
+    IntBuffer pixels = buffer.asIntBuffer();
+    for (int row = 0; row < height; ++row) {
+      pixels.get(target.data, (y + row) * target.width + x, width);
+    }
+  }
+
+  /** A tile that a worker failed to render. Other workers would fail the same way. */
+  static class TileException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    TileException(String message) {
+      super(message);
+    }
+  }
+}
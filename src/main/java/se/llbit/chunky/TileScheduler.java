@@ -0,0 +1,208 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A worker pool shared by several render threads. Each frame is split into
+ * tiles, and the workers take tiles from the pending frames in round-robin
+ * order, so that all views make progress at the same rate.
+ */
+class TileScheduler {
+  static final int TILE_SIZE = 32;
+
+  /** A frame being rendered. */
+  private static class Job {
+    final Object client;
+    final ViewState view;
+    final BitmapImage target;
+    final float[] cost;
+    final GBuffer gbuffer;
+    final TraceStats stats;
+    final int tilesX;
+    final int numTiles;
+
+    /** Next tile to hand out. Guarded by the scheduler. */
+    int nextTile = 0;
+
+    /** Tiles not yet completed. Guarded by the scheduler. */
+    int remaining;
+
+    Throwable failure = null;
+
+    Job(Object client, ViewState view, BitmapImage target, float[] cost, GBuffer gbuffer,
+        TraceStats stats) {
+      this.client = client;
+      this.view = view;
+      this.target = target;
+      this.cost = cost;
+      this.gbuffer = gbuffer;
+      this.stats = stats;
+      tilesX = (target.width + TILE_SIZE - 1) / TILE_SIZE;
+      int tilesY = (target.height + TILE_SIZE - 1) / TILE_SIZE;
+      numTiles = tilesX * tilesY;
+      remaining = numTiles;
+    }
+  }
+
+  /** Frames with tiles left to hand out. */
+  private final List<Job> jobs = new ArrayList<>();
+
+  /** Index of the job to take the next tile from. */
+  private int next = 0;
+
+  private boolean shutdown = false;
+
+  /** Number of workers taking tiles. The others wait. */
+  private int activeThreads;
+
+  private final Thread[] workers;
+
+  TileScheduler(int numThreads) {
+    activeThreads = numThreads;
+    workers = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      int index = i;
+      workers[i] = new Thread(() -> work(index), "Tile Worker " + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  int getNumThreads() {
+    return workers.length;
+  }
+
+  synchronized int getActiveThreads() {
+    return activeThreads;
+  }
+
+  /**
+   * Limit the number of workers that take tiles, to leave cores for other
+   * work. Workers finish their current tile before they stop.
+   */
+  synchronized void setActiveThreads(int numThreads) {
+    activeThreads = Math.max(1, Math.min(workers.length, numThreads));
+    notifyAll();
+  }
+
+  /**
+   * Render a frame on the worker pool and wait for it to complete.
+   *
+   * @param client identifies the caller. Workers keep one tracer per client.
+   * @param cost per-pixel cost output for heatmap mode, or null
+   * @param gbuffer receives the trace results, same size as the target
+   * @param stats receives the ray tracing counters of all tiles
+   */
+  void render(Object client, ViewState view, BitmapImage target, float[] cost, GBuffer gbuffer,
+      TraceStats stats) throws InterruptedException {
+    Job job = new Job(client, view.copy(), target, cost, gbuffer, stats);
+    synchronized (this) {
+      if (job.numTiles == 0) {
+        return;
+      }
+      jobs.add(job);
+      notifyAll();
+      try {
+        while (job.remaining > 0) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        // Hand out no more tiles. Tiles already being rendered still finish.
+        jobs.remove(job);
+        throw e;
+      }
+    }
+    if (job.failure != null) {
+      throw new RuntimeException("Tile rendering failed", job.failure);
+    }
+  }
+
+  /** Stop the worker threads. Frames being rendered are not completed. */
+  synchronized void shutdown() {
+    shutdown = true;
+    notifyAll();
+  }
+
+  /**
+   * Take the next tile in round-robin order.
+   *
+   * @return the job, or null if the scheduler was shut down
+   */
+  private synchronized Job nextTile(int worker, int[] tile) throws InterruptedException {
+    while ((jobs.isEmpty() || worker >= activeThreads) && !shutdown) {
+      wait();
+    }
+    if (shutdown) {
+      return null;
+    }
+    next %= jobs.size();
+    Job job = jobs.get(next);
+    tile[0] = job.nextTile++;
+    if (job.nextTile == job.numTiles) {
+      // The following job moves into this index.
+      jobs.remove(next);
+    } else {
+      next += 1;
+    }
+    return job;
+  }
+
+  private synchronized void tileDone(Job job) {
+    job.remaining -= 1;
+    if (job.remaining == 0) {
+      notifyAll();
+    }
+  }
+
+  private void work(int worker) {
+    // One tracer per client, updated when the client's frame changes.
+    Map<Object, TestTracer> tracers = new IdentityHashMap<>();
+    Map<Object, Job> tracerJobs = new IdentityHashMap<>();
+    int[] tile = new int[1];
+    try {
+      Job job;
+      while ((job = nextTile(worker, tile)) != null) {
+        TestTracer tracer = tracers.computeIfAbsent(job.client, client -> new TestTracer());
+        try {
+          if (tracerJobs.put(job.client, job) != job) {
+            tracer.setState(job.view);
+          }
+          int x0 = (tile[0] % job.tilesX) * TILE_SIZE;
+          int y0 = (tile[0] / job.tilesX) * TILE_SIZE;
+          int x1 = Math.min(x0 + TILE_SIZE, job.target.width);
+          int y1 = Math.min(y0 + TILE_SIZE, job.target.height);
+          tracer.stats.reset();
+          tracer.drawRegion(job.target, job.cost, job.gbuffer, x0, y0, x1, y1);
+          if (TraceStats.ENABLED) {
+            synchronized (job.stats) {
+              job.stats.add(tracer.stats);
+            }
+          }
+        } catch (RuntimeException | Error e) {
+          job.failure = e;
+        }
+        tileDone(job);
+      }
+    } catch (InterruptedException ignored) {
+    }
+  }
+}
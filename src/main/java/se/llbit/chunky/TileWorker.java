@@ -0,0 +1,196 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.TexturePackLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders tiles for a {@link TileCoordinator}.
+ *
+ * <p>Usage: {@code TileWorker [options]}. Options:
+ * <ul>
+ * <li>{@code -port <n>}: port to listen on. Default 0, any free port.
+ * <li>{@code -bind <address>}: address to listen on. Default the loopback
+ * interface; use 0.0.0.0 to accept coordinators on other hosts.
+ * <li>{@code -threads <n>}: number of connections the coordinator should
+ * open, each rendered on its own thread. Default one per core.
+ * <li>{@code -watchStdin true}: exit when standard input is closed. Used
+ * for local workers started by the coordinator.
+ * <li>{@code -crashAfter <n>}: exit abruptly after rendering n tiles, for
+ * testing how the coordinator handles failed workers.
+ * </ul>
+ *
+ * <p>The port is printed on standard output when the worker is ready.
+ */
+public class TileWorker {
+  /** Largest tile accepted, in pixels. */
+  static final int MAX_TILE_PIXELS = 1 << 20;
+
+  private final ServerSocket server;
+  private final int threads;
+  private final int crashAfter;
+  private final AtomicInteger tilesRendered = new AtomicInteger();
+
+  TileWorker(InetAddress address, int port, int threads, int crashAfter) throws IOException {
+    server = new ServerSocket();
+    server.bind(new InetSocketAddress(address, port));
+    this.threads = threads;
+    this.crashAfter = crashAfter;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 0;
+    InetAddress address = InetAddress.getLoopbackAddress();
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean watchStdin = false;
+    int crashAfter = 0;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "-port":
+          port = Integer.parseInt(args[i + 1]);
+          break;
+        case "-bind":
+          address = InetAddress.getByName(args[i + 1]);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(args[i + 1]);
+          break;
+        case "-watchStdin":
+          watchStdin = Boolean.parseBoolean(args[i + 1]);
+          break;
+        case "-crashAfter":
+          crashAfter = Integer.parseInt(args[i + 1]);
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+    TestTracer.loadTextures();
+
+    TileWorker worker = new TileWorker(address, port, threads, crashAfter);
+    if (watchStdin) {
+      Thread watcher = new Thread(() -> {
+        try {
+          while (System.in.read() != -1) {
+            // Wait for end of input.
+          }
+        } catch (IOException ignored) {
+        }
+        System.exit(0);
+      }, "Stdin Watcher");
+      watcher.setDaemon(true);
+      watcher.start();
+    }
+    System.out.format("Tile worker listening on port %d%n", worker.server.getLocalPort());
+    System.out.flush();
+    worker.serve();
+  }
+
+  /** Accept coordinator connections until the process exits. */
+  void serve() throws IOException {
+    int connections = 0;
+    while (true) {
+      Socket socket = server.accept();
+      Thread thread = new Thread(() -> handle(socket), "Tile Connection " + connections++);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /** Render tile requests from one connection until it is closed. */
+  private void handle(Socket socket) {
+    try (Socket s = socket) {
+      s.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+      TileProtocol.writeGreeting(out, threads);
+
+      TestTracer tracer = new TestTracer();
+      ViewState view = new ViewState();
+      ViewState current = null;
+      int[] region = new int[6];
+      BitmapImage tile = null;
+      ByteBuffer buffer = ByteBuffer.allocate(0);
+      while (true) {
+        try {
+          TileProtocol.readRequest(in, view, region);
+        } catch (EOFException e) {
+          return;
+        }
+        int width = region[0];
+        int height = region[1];
+        int x0 = region[2];
+        int y0 = region[3];
+        int x1 = region[4];
+        int y1 = region[5];
+        if (x0 < 0 || y0 < 0 || x1 > width || y1 > height || x0 >= x1 || y0 >= y1
+            || (long) (x1 - x0) * (y1 - y0) > MAX_TILE_PIXELS) {
+          TileProtocol.writeError(out, String.format("Invalid tile (%d, %d)-(%d, %d) of %dx%d",
+              x0, y0, x1, y1, width, height));
+          continue;
+        }
+        if (!RenderModes.exists(view.model)) {
+          TileProtocol.writeError(out, "Unknown model: " + view.model);
+          continue;
+        }
+        if (!BlockModelLoader.isValidName(view.customModel)) {
+          TileProtocol.writeError(out, "Invalid model name: " + view.customModel);
+          continue;
+        }
+        try {
+          if (!view.equals(current)) {
+            tracer.setState(view);
+            current = view.copy();
+          }
+          if (tile == null || tile.width != x1 - x0 || tile.height != y1 - y0) {
+            tile = new BitmapImage(x1 - x0, y1 - y0);
+          }
+          tracer.drawTile(tile, width, height, x0, y0, x1, y1);
+        } catch (RuntimeException e) {
+          TileProtocol.writeError(out, e.toString());
+          continue;
+        }
+        if (crashAfter > 0 && tilesRendered.incrementAndGet() >= crashAfter) {
+          System.err.format("Crashing after %d tiles%n", crashAfter);
+          Runtime.getRuntime().halt(1);
+        }
+        if (buffer.capacity() < 4 * tile.width * tile.height) {
+          buffer = ByteBuffer.allocate(4 * tile.width * tile.height);
+        }
+        TileProtocol.writePixels(out, tile, buffer);
+      }
+    } catch (IOException e) {
+      System.err.println("Tile connection failed: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * Ray tracing counters for one thread.
+ *
+ * <p>Counting is enabled with the system property {@code -Dtestrenderer.stats=true}.
+ * All updates are guarded by the constant {@link #ENABLED} flag, so the JIT
+ * compiler removes them entirely when counting is disabled.
+ *
+ * <p>Texture fetches only include fetches made by the test renderer itself,
+ * not those made inside {@code Block.intersect}.
+ */
+class TraceStats {
+  static final boolean ENABLED = Boolean.getBoolean("testrenderer.stats");
+
+  long rays;
+  long slabTests;
+  long quadTests;
+  long spriteSteps;
+  long blockIntersects;
+  long hits;
+  long textureFetches;
+
+  void reset() {
+    rays = 0;
+    slabTests = 0;
+    quadTests = 0;
+    spriteSteps = 0;
+    blockIntersects = 0;
+    hits = 0;
+    textureFetches = 0;
+  }
+
+  void set(TraceStats other) {
+    rays = other.rays;
+    slabTests = other.slabTests;
+    quadTests = other.quadTests;
+    spriteSteps = other.spriteSteps;
+    blockIntersects = other.blockIntersects;
+    hits = other.hits;
+    textureFetches = other.textureFetches;
+  }
+
+  void add(TraceStats other) {
+    rays += other.rays;
+    slabTests += other.slabTests;
+    quadTests += other.quadTests;
+    spriteSteps += other.spriteSteps;
+    blockIntersects += other.blockIntersects;
+    hits += other.hits;
+    textureFetches += other.textureFetches;
+  }
+
+  /**
+   * @return a compact multi-line summary for the on-screen overlay
+   */
+  String summary() {
+    return String.format("rays: %d%nslab tests: %d%nquads: %d%nsprite steps: %d%n"
+            + "block.intersect: %d%nhits: %d%ntexture fetches: %d",
+        rays, slabTests, quadTests, spriteSteps, blockIntersects, hits, textureFetches);
+  }
+}
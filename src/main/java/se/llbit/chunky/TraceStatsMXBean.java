@@ -0,0 +1,40 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * Management interface for the ray tracing counters of the last rendered frame.
+ */
+public interface TraceStatsMXBean {
+  boolean isEnabled();
+
+  long getFrames();
+
+  double getFrameTime();
+
+  long getRays();
+
+  long getSlabTests();
+
+  long getQuadTests();
+
+  long getSpriteSteps();
+
+  long getBlockIntersects();
+
+  long getHits();
+
+  long getTextureFetches();
+}
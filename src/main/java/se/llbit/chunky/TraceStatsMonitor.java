@@ -0,0 +1,122 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes per-frame ray tracing counters through JMX as
+ * {@code se.llbit.chunky:type=TraceStats}, or
+ * {@code se.llbit.chunky:type=TraceStats,view=<name>} for a named view.
+ */
+class TraceStatsMonitor implements TraceStatsMXBean {
+  private static TraceStatsMonitor instance = null;
+  private static final Map<String, TraceStatsMonitor> views = new HashMap<>();
+
+  private final TraceStats frameStats = new TraceStats();
+  private long frames = 0;
+  private double frameTime = 0;
+
+  private TraceStatsMonitor() {
+  }
+
+  /**
+   * @return the monitor instance, registered with the platform MBean server
+   */
+  static synchronized TraceStatsMonitor get() {
+    if (instance == null) {
+      instance = register("se.llbit.chunky:type=TraceStats");
+    }
+    return instance;
+  }
+
+  /**
+   * @return the monitor for the named view, registered with the platform
+   * MBean server
+   */
+  static synchronized TraceStatsMonitor get(String view) {
+    TraceStatsMonitor monitor = views.get(view);
+    if (monitor == null) {
+      monitor = register("se.llbit.chunky:type=TraceStats,view=" + ObjectName.quote(view));
+      views.put(view, monitor);
+    }
+    return monitor;
+  }
+
+  private static TraceStatsMonitor register(String name) {
+    TraceStatsMonitor monitor = new TraceStatsMonitor();
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, new ObjectName(name));
+    } catch (JMException e) {
+      System.err.println("Failed to register trace statistics MBean: " + e.getMessage());
+    }
+    return monitor;
+  }
+
+  /**
+   * Publish the counters for a completed frame.
+   *
+   * @param time frame time in milliseconds
+   */
+  synchronized void publish(TraceStats stats, double time) {
+    frameStats.set(stats);
+    frameTime = time;
+    frames += 1;
+  }
+
+  @Override public boolean isEnabled() {
+    return TraceStats.ENABLED;
+  }
+
+  @Override public synchronized long getFrames() {
+    return frames;
+  }
+
+  @Override public synchronized double getFrameTime() {
+    return frameTime;
+  }
+
+  @Override public synchronized long getRays() {
+    return frameStats.rays;
+  }
+
+  @Override public synchronized long getSlabTests() {
+    return frameStats.slabTests;
+  }
+
+  @Override public synchronized long getQuadTests() {
+    return frameStats.quadTests;
+  }
+
+  @Override public synchronized long getSpriteSteps() {
+    return frameStats.spriteSteps;
+  }
+
+  @Override public synchronized long getBlockIntersects() {
+    return frameStats.blockIntersects;
+  }
+
+  @Override public synchronized long getHits() {
+    return frameStats.hits;
+  }
+
+  @Override public synchronized long getTextureFetches() {
+    return frameStats.textureFetches;
+  }
+}
@@ -0,0 +1,338 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.resources.BitmapImage;
+import se.llbit.chunky.resources.TexturePackLoader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Renders a camera orbit around the test block as an animation.
+ *
+ * <p>The camera path is given by yaw/pitch/distance keyframes which are
+ * interpolated linearly. Frame f is taken at position f/N along the path,
+ * so a full 360 degree orbit loops without a duplicated frame.
+ *
+ * <p>Frames are rendered in parallel, each worker thread with its own
+ * tracer. A single writer thread writes completed frames in order using
+ * NIO channels. At most a fixed number of frames are in flight at a time,
+ * so memory use does not grow with the length of the animation.
+ *
+ * <p>Output formats:
+ * <ul>
+ *   <li>{@code png}: a sequence of PNG files, frame_00000.png etc., in the output directory.
+ *   <li>{@code rgba}: a raw stream of 8-bit RGBA frames written to the output file,
+ *   or to standard output if the output is {@code -}.
+ * </ul>
+ */
+public class TurntableExport {
+  /** A camera keyframe. Angles are in radians. */
+  static class Keyframe {
+    final double yaw;
+    final double pitch;
+    final double distance;
+
+    Keyframe(double yaw, double pitch, double distance) {
+      this.yaw = yaw;
+      this.pitch = pitch;
+      this.distance = distance;
+    }
+  }
+
+  enum Format {
+    PNG, RGBA
+  }
+
+  private final ViewState baseView;
+  private final List<Keyframe> keyframes;
+  private final int frames;
+  private final int width;
+  private final int height;
+  private final int threads;
+  private final Format format;
+  private final Path output;
+
+  /** Encoded frames waiting to be written. Indexed by frame number. */
+  private final ByteBuffer[] completed;
+  private final Semaphore inFlight;
+  private Throwable failure = null;
+  private int nextFrame = 0;
+
+  TurntableExport(ViewState baseView, List<Keyframe> keyframes, int frames, int width,
+      int height, int threads, Format format, Path output) {
+    if (keyframes.isEmpty()) {
+      throw new IllegalArgumentException("At least one keyframe is required");
+    }
+    this.baseView = baseView.copy();
+    this.keyframes = keyframes;
+    this.frames = frames;
+    this.width = width;
+    this.height = height;
+    this.threads = threads;
+    this.format = format;
+    this.output = output;
+    completed = new ByteBuffer[frames];
+    inFlight = new Semaphore(2 * threads);
+  }
+
+  public static void main(String[] args) throws Exception {
+    ViewState view = new ViewState();
+    List<Keyframe> keyframes = new ArrayList<>();
+    int frames = 120;
+    int width = 400;
+    int height = 400;
+    int threads = Runtime.getRuntime().availableProcessors();
+    Format format = Format.PNG;
+    String output = "turntable";
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "-block":
+          ViewState.parseInteger(value, id -> view.blockId = id);
+          break;
+        case "-data":
+          ViewState.parseInteger(value, data -> view.blockData = data);
+          break;
+        case "-model":
+          view.model = value;
+          break;
+        case "-compass":
+          view.drawCompass = Boolean.parseBoolean(value);
+          break;
+        case "-keyframe": {
+          // yaw,pitch,distance with angles in degrees.
+          String[] parts = value.split(",");
+          if (parts.length != 3) {
+            System.err.println("Keyframes must be given as yaw,pitch,distance");
+            System.exit(1);
+          }
+          keyframes.add(new Keyframe(Math.toRadians(Double.parseDouble(parts[0])),
+              Math.toRadians(Double.parseDouble(parts[1])), Double.parseDouble(parts[2])));
+          break;
+        }
+        case "-frames":
+          frames = Integer.parseInt(value);
+          break;
+        case "-width":
+          width = Integer.parseInt(value);
+          break;
+        case "-height":
+          height = Integer.parseInt(value);
+          break;
+        case "-threads":
+          threads = Integer.parseInt(value);
+          break;
+        case "-format":
+          format = Format.valueOf(value.toUpperCase());
+          break;
+        case "-out":
+          output = value;
+          break;
+        default:
+          System.err.println("Unknown option: " + args[i]);
+          System.exit(1);
+      }
+    }
+    if (keyframes.isEmpty()) {
+      // Default: one full orbit.
+      keyframes.add(new Keyframe(view.yaw, view.pitch, view.distance));
+      keyframes.add(new Keyframe(view.yaw + 2 * Math.PI, view.pitch, view.distance));
+    }
+
+    // Load the default textures:
+    TexturePackLoader.loadTexturePacks(new String[0], false);
+    TestTracer.loadTextures();
+
+    TurntableExport export = new TurntableExport(view, keyframes, frames, width, height,
+        threads, format, Paths.get(output));
+    long start = System.nanoTime();
+    export.run();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.err.format("Exported %d frames in %.2fs (%.1f frames/s)%n", frames, seconds,
+        frames / seconds);
+  }
+
+  /**
+   * Compute the camera state for the given frame.
+   */
+  void getView(int frame, ViewState view) {
+    view.set(baseView);
+    int segments = keyframes.size() - 1;
+    if (segments == 0) {
+      Keyframe key = keyframes.get(0);
+      view.yaw = key.yaw;
+      view.pitch = key.pitch;
+      view.distance = key.distance;
+      return;
+    }
+    double position = frame * segments / (double) frames;
+    int segment = Math.min(segments - 1, (int) position);
+    double t = position - segment;
+    Keyframe k0 = keyframes.get(segment);
+    Keyframe k1 = keyframes.get(segment + 1);
+    view.yaw = k0.yaw + t * (k1.yaw - k0.yaw);
+    view.pitch = k0.pitch + t * (k1.pitch - k0.pitch);
+    view.distance = k0.distance + t * (k1.distance - k0.distance);
+  }
+
+  void run() throws IOException, InterruptedException {
+    if (format == Format.PNG) {
+      Files.createDirectories(output);
+    }
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; ++i) {
+      workers[i] = new Thread(this::renderFrames, "Turntable Worker " + i);
+      workers[i].start();
+    }
+    try {
+      writeFrames();
+    } finally {
+      for (Thread worker : workers) {
+        worker.interrupt();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    }
+  }
+
+  private void renderFrames() {
+    TestTracer tracer = new TestTracer();
+    ViewState view = new ViewState();
+    BitmapImage image = new BitmapImage(width, height);
+    try {
+      while (true) {
+        inFlight.acquire();
+        int frame;
+        synchronized (completed) {
+          if (nextFrame >= frames || failure != null) {
+            return;
+          }
+          frame = nextFrame++;
+        }
+        getView(frame, view);
+        tracer.setState(view);
+        tracer.drawFrame(image);
+        ByteBuffer data = encode(image);
+        synchronized (completed) {
+          completed[frame] = data;
+          completed.notifyAll();
+        }
+      }
+    } catch (InterruptedException ignored) {
+    } catch (Throwable e) {
+      synchronized (completed) {
+        failure = e;
+        completed.notifyAll();
+      }
+    }
+  }
+
+  private ByteBuffer encode(BitmapImage image) throws IOException {
+    switch (format) {
+      case PNG:
+        return ByteBuffer.wrap(PngEncoder.encode(image));
+      case RGBA:
+      default:
+        ByteBuffer buffer = ByteBuffer.allocate(width * height * 4);
+        for (int argb : image.data) {
+          buffer.put((byte) (argb >>> 16));
+          buffer.put((byte) (argb >>> 8));
+          buffer.put((byte) argb);
+          buffer.put((byte) (argb >>> 24));
+        }
+        buffer.flip();
+        return buffer;
+    }
+  }
+
+  /**
+   * Write completed frames in order.
+   */
+  private void writeFrames() throws IOException, InterruptedException {
+    WritableByteChannel stream = null;
+    try {
+      if (format == Format.RGBA) {
+        if (output.toString().equals("-")) {
+          stream = Channels.newChannel(System.out);
+        } else {
+          stream = FileChannel.open(output, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+      }
+      for (int frame = 0; frame < frames; ++frame) {
+        ByteBuffer data;
+        synchronized (completed) {
+          while (completed[frame] == null && failure == null) {
+            completed.wait();
+          }
+          if (failure != null) {
+            throw new IOException("Failed to render frame", failure);
+          }
+          data = completed[frame];
+          completed[frame] = null;
+        }
+        if (stream != null) {
+          writeFully(stream, data);
+        } else {
+          Path file = output.resolve(String.format("frame_%05d.png", frame));
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, data);
+          }
+        }
+        inFlight.release();
+        if ((frame + 1) % 10 == 0 || frame + 1 == frames) {
+          System.err.format("Frame %d/%d%n", frame + 1, frames);
+        }
+      }
+    } finally {
+      synchronized (completed) {
+        if (failure == null && nextFrame < frames) {
+          // Stop the workers if writing failed.
+          failure = new IOException("Export aborted");
+        }
+      }
+      // Unblock workers waiting for a free slot.
+      inFlight.release(threads);
+      if (stream != null) {
+        if (output.toString().equals("-")) {
+          System.out.flush();
+        } else {
+          stream.close();
+        }
+      }
+    }
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer data)
+      throws IOException {
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+}
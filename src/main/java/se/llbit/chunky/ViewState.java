@@ -0,0 +1,184 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import se.llbit.chunky.world.Block;
+import se.llbit.math.Matrix3;
+import se.llbit.math.QuickMath;
+
+import java.util.function.Consumer;
+
+/**
+ * Camera and scene settings for one rendered frame.
+ *
+ * <p>Instances are mutable. A copy should be made before using a view state
+ * as a map key.
+ */
+class ViewState {
+  double yaw = -3 * Math.PI / 4;
+  double pitch = -1 * Math.PI / 6;
+  double distance = 1.5;
+  int blockId = Block.GRASS_ID;
+  int blockData = 0;
+  String model = "block";
+  boolean drawCompass = false;
+
+  /**
+   * Name of the JSON block model to render in the custom model mode.
+   * The redstone wire test model is used if empty.
+   */
+  String customModel = "";
+
+  /** Show the per-pixel trace cost of the model instead of the rendered image. */
+  boolean heatmap = false;
+
+  /** Blend the heatmap over the rendered image. */
+  boolean heatmapOverlay = false;
+
+  ViewState() {
+  }
+
+  ViewState(ViewState other) {
+    set(other);
+  }
+
+  void set(ViewState other) {
+    yaw = other.yaw;
+    pitch = other.pitch;
+    distance = other.distance;
+    blockId = other.blockId;
+    blockData = other.blockData;
+    model = other.model;
+    drawCompass = other.drawCompass;
+    customModel = other.customModel;
+    heatmap = other.heatmap;
+    heatmapOverlay = other.heatmapOverlay;
+  }
+
+  ViewState copy() {
+    return new ViewState(this);
+  }
+
+  /**
+   * Parse a block ID or data value: a decimal integer, or a hexadecimal or
+   * binary integer with a 0x or 0b prefix. The consumer is not called if
+   * the text is not a valid integer.
+   */
+  static void parseInteger(String text, Consumer<Integer> consumer) {
+    try {
+      if (text.startsWith("0x")) {
+        consumer.accept(Integer.parseInt(text.substring(2), 16));
+      } else if (text.startsWith("0b")) {
+        consumer.accept(Integer.parseInt(text.substring(2), 2));
+      } else {
+        consumer.accept(Integer.parseInt(text));
+      }
+    } catch (NumberFormatException ignored) {
+    }
+  }
+
+  /**
+   * Rotate the camera by a mouse movement.
+   *
+   * @param dx horizontal movement in pixels
+   * @param dy vertical movement in pixels
+   * @param fov field of view in degrees
+   */
+  void pan(double dx, double dy, double fov) {
+    double fovRad = QuickMath.degToRad(fov / 2);
+
+    yaw += (Math.PI / 250) * dx * fovRad;
+    pitch += (Math.PI / 250) * dy * fovRad;
+
+    if (yaw > QuickMath.TAU) {
+      yaw -= QuickMath.TAU;
+    } else if (yaw < -QuickMath.TAU) {
+      yaw += QuickMath.TAU;
+    }
+  }
+
+  /**
+   * Compute the camera orientation for this view.
+   */
+  void getTransform(Matrix3 transform) {
+    Matrix3 tmpTransform = new Matrix3();
+
+    transform.setIdentity();
+
+    // Yaw (y axis rotation).
+    tmpTransform.rotY(QuickMath.HALF_PI + yaw);
+    transform.mul(tmpTransform);
+
+    // Pitch (x axis rotation).
+    tmpTransform.rotX(QuickMath.HALF_PI - pitch);
+    transform.mul(tmpTransform);
+  }
+
+  /**
+   * @return {@code true} if the other view traces the same rays with the
+   * same results, so that only the shading settings (compass and heatmap)
+   * can differ
+   */
+  boolean sameGeometry(ViewState other) {
+    return Double.compare(yaw, other.yaw) == 0
+        && Double.compare(pitch, other.pitch) == 0
+        && Double.compare(distance, other.distance) == 0
+        && blockId == other.blockId
+        && blockData == other.blockData
+        && model.equals(other.model)
+        && customModel.equals(other.customModel);
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ViewState)) {
+      return false;
+    }
+    ViewState other = (ViewState) obj;
+    return Double.compare(yaw, other.yaw) == 0
+        && Double.compare(pitch, other.pitch) == 0
+        && Double.compare(distance, other.distance) == 0
+        && blockId == other.blockId
+        && blockData == other.blockData
+        && model.equals(other.model)
+        && drawCompass == other.drawCompass
+        && customModel.equals(other.customModel)
+        && heatmap == other.heatmap
+        && heatmapOverlay == other.heatmapOverlay;
+  }
+
+  @Override public int hashCode() {
+    int hash = Double.hashCode(yaw);
+    hash = 31 * hash + Double.hashCode(pitch);
+    hash = 31 * hash + Double.hashCode(distance);
+    hash = 31 * hash + blockId;
+    hash = 31 * hash + blockData;
+    hash = 31 * hash + model.hashCode();
+    hash = 31 * hash + (drawCompass ? 1 : 0);
+    hash = 31 * hash + customModel.hashCode();
+    hash = 31 * hash + (heatmap ? 1 : 0);
+    hash = 31 * hash + (heatmapOverlay ? 1 : 0);
+    return hash;
+  }
+
+  @Override public String toString() {
+    return String.format("%s%s %d:%d yaw=%.3f pitch=%.3f distance=%.2f%s%s", model,
+        customModel.isEmpty() ? "" : " " + customModel, blockId,
+        blockData, yaw, pitch, distance, drawCompass ? " compass" : "",
+        heatmap ? (heatmapOverlay ? " heatmap overlay" : " heatmap") : "");
+  }
+}
@@ -0,0 +1,64 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+/**
+ * Batched ray intersection kernels.
+ *
+ * <p>This is the Java 16 version, packaged under
+ * {@code META-INF/versions/16} in the multi-release jar. It uses the SIMD
+ * kernels in {@link VectorKernels} when the incubating Vector API module is
+ * loaded, that is when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise it falls back to the
+ * scalar kernels. Set {@code -Dtestrenderer.scalar=true} to force the scalar
+ * kernels.
+ */
+class RayKernels {
+  static final boolean VECTORIZED =
+      ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+          && !Boolean.getBoolean("testrenderer.scalar");
+
+  private RayKernels() {
+  }
+
+  /**
+   * Intersect a batch of rays with the unit box [0, 1]<sup>3</sup>.
+   * Stores the entry and exit distances for each ray. Same as the per-ray
+   * slab test previously done in {@code enterBlock}: the ray misses the box
+   * if tNear &gt; tFar or tFar &lt; 0.
+   */
+  static void unitBox(double[] ox, double[] oy, double[] oz, double[] dx, double[] dy,
+      double[] dz, double[] nearOut, double[] farOut, int count) {
+    if (VECTORIZED) {
+      VectorKernels.unitBox(ox, oy, oz, dx, dy, dz, nearOut, farOut, count);
+    } else {
+      ScalarKernels.unitBox(ox, oy, oz, dx, dy, dz, nearOut, farOut, 0, count);
+    }
+  }
+
+  /**
+   * Intersect one ray with the quads first, ..., first + count - 1.
+   * For each quad, stores the hit distance (positive infinity for a miss)
+   * and texture coordinates at index 0, ..., count - 1 of the output arrays.
+   */
+  static void quads(PackedQuads quads, int first, int count, double ox, double oy, double oz,
+      double dx, double dy, double dz, double[] tOut, double[] uOut, double[] vOut) {
+    if (VECTORIZED) {
+      VectorKernels.quads(quads, first, count, ox, oy, oz, dx, dy, dz, tOut, uOut, vOut);
+    } else {
+      ScalarKernels.quads(quads, first, 0, count, ox, oy, oz, dx, dy, dz, tOut, uOut, vOut);
+    }
+  }
+}
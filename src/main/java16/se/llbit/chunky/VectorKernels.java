@@ -0,0 +1,111 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import se.llbit.math.Ray;
+
+/**
+ * SIMD versions of the batched intersection kernels, using the Java Vector
+ * API. See {@link RayKernels}.
+ *
+ * <p>These compute the same operations in the same order as
+ * {@link ScalarKernels}, without fused multiply-add, so the results are
+ * identical. The lanes that do not fill a whole vector are handled by the
+ * scalar kernels.
+ */
+class VectorKernels {
+  /** Species for ray batches: as wide as the hardware supports. */
+  private static final VectorSpecies<Double> RAYS = DoubleVector.SPECIES_PREFERRED;
+
+  /**
+   * Species for quad batches. At most four lanes, so that a full
+   * {@link BlockModel} leaf fits in one vector.
+   */
+  private static final VectorSpecies<Double> QUADS = VectorSpecies.of(double.class,
+      VectorShape.forBitSize(Math.min(256, RAYS.vectorBitSize())));
+
+  private VectorKernels() {
+  }
+
+  static void unitBox(double[] ox, double[] oy, double[] oz, double[] dx, double[] dy,
+      double[] dz, double[] nearOut, double[] farOut, int count) {
+    int bound = RAYS.loopBound(count);
+    for (int i = 0; i < bound; i += RAYS.length()) {
+      DoubleVector tNear = DoubleVector.broadcast(RAYS, Double.NEGATIVE_INFINITY);
+      DoubleVector tFar = DoubleVector.broadcast(RAYS, Double.POSITIVE_INFINITY);
+      for (int axis = 0; axis < 3; ++axis) {
+        double[] oa = axis == 0 ? ox : axis == 1 ? oy : oz;
+        double[] da = axis == 0 ? dx : axis == 1 ? dy : dz;
+        DoubleVector o = DoubleVector.fromArray(RAYS, oa, i);
+        DoubleVector d = DoubleVector.fromArray(RAYS, da, i);
+        // Axes where the direction is zero do not constrain the interval.
+        VectorMask<Double> nonZero = d.compare(VectorOperators.NE, 0);
+        DoubleVector t1 = o.neg().div(d);
+        DoubleVector t2 = DoubleVector.broadcast(RAYS, 1).sub(o).div(d);
+        // Blends instead of min/max to match the scalar code on signed zeros.
+        VectorMask<Double> swap = t1.compare(VectorOperators.GT, t2);
+        DoubleVector lo = t1.blend(t2, swap);
+        DoubleVector hi = t2.blend(t1, swap);
+        tNear = tNear.blend(lo, lo.compare(VectorOperators.GT, tNear).and(nonZero));
+        tFar = tFar.blend(hi, hi.compare(VectorOperators.LT, tFar).and(nonZero));
+      }
+      tNear.intoArray(nearOut, i);
+      tFar.intoArray(farOut, i);
+    }
+    ScalarKernels.unitBox(ox, oy, oz, dx, dy, dz, nearOut, farOut, bound, count);
+  }
+
+  static void quads(PackedQuads q, int first, int count, double ox, double oy, double oz,
+      double dx, double dy, double dz, double[] tOut, double[] uOut, double[] vOut) {
+    int bound = QUADS.loopBound(count);
+    for (int j = 0; j < bound; j += QUADS.length()) {
+      int i = first + j;
+      DoubleVector nx = DoubleVector.fromArray(QUADS, q.nx, i);
+      DoubleVector ny = DoubleVector.fromArray(QUADS, q.ny, i);
+      DoubleVector nz = DoubleVector.fromArray(QUADS, q.nz, i);
+      DoubleVector denom = nx.mul(dx).add(ny.mul(dy)).add(nz.mul(dz));
+      DoubleVector t = nx.mul(ox).add(ny.mul(oy)).add(nz.mul(oz))
+          .add(DoubleVector.fromArray(QUADS, q.nd, i)).neg().div(denom);
+      DoubleVector px = t.mul(dx).add(ox).sub(DoubleVector.fromArray(QUADS, q.ox, i));
+      DoubleVector py = t.mul(dy).add(oy).sub(DoubleVector.fromArray(QUADS, q.oy, i));
+      DoubleVector pz = t.mul(dz).add(oz).sub(DoubleVector.fromArray(QUADS, q.oz, i));
+      DoubleVector u = px.mul(DoubleVector.fromArray(QUADS, q.xvx, i))
+          .add(py.mul(DoubleVector.fromArray(QUADS, q.xvy, i)))
+          .add(pz.mul(DoubleVector.fromArray(QUADS, q.xvz, i)))
+          .mul(DoubleVector.fromArray(QUADS, q.xvl, i));
+      DoubleVector v = px.mul(DoubleVector.fromArray(QUADS, q.yvx, i))
+          .add(py.mul(DoubleVector.fromArray(QUADS, q.yvy, i)))
+          .add(pz.mul(DoubleVector.fromArray(QUADS, q.yvz, i)))
+          .mul(DoubleVector.fromArray(QUADS, q.yvl, i));
+      VectorMask<Double> hit = denom.compare(VectorOperators.LT, -Ray.EPSILON)
+          .and(t.compare(VectorOperators.GT, -Ray.EPSILON))
+          .and(u.compare(VectorOperators.GE, 0))
+          .and(u.compare(VectorOperators.LE, 1))
+          .and(v.compare(VectorOperators.GE, 0))
+          .and(v.compare(VectorOperators.LE, 1));
+      DoubleVector.broadcast(QUADS, Double.POSITIVE_INFINITY).blend(t, hit).intoArray(tOut, j);
+      u.mul(DoubleVector.fromArray(QUADS, q.du, i))
+          .add(DoubleVector.fromArray(QUADS, q.u0, i)).intoArray(uOut, j);
+      v.mul(DoubleVector.fromArray(QUADS, q.dv, i))
+          .add(DoubleVector.fromArray(QUADS, q.v0, i)).intoArray(vOut, j);
+    }
+    ScalarKernels.quads(q, first, bound, count, ox, oy, oz, dx, dy, dz, tOut, uOut, vOut);
+  }
+}
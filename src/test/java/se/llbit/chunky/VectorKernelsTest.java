@@ -0,0 +1,175 @@
+/* Copyright (c) 2016 Jesper Öqvist <jesper@llbit.se>
+ *
+ * Chunky is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Chunky is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with Chunky.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package se.llbit.chunky;
+
+import org.junit.Test;
+import se.llbit.math.Vector3;
+import se.llbit.math.Vector4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the SIMD kernels give bitwise identical results to the scalar
+ * kernels on edge cases: axis-aligned rays, positive and negative zero
+ * direction components, origins on the slab and quad planes, and batches
+ * that end in a partial vector.
+ */
+public class VectorKernelsTest {
+  /** Origin coordinates, including the unit box slab planes. */
+  private static final double[] ORIGINS = { -1, -0.0, 0, .5, 1, 2 };
+
+  /** Direction components, including both signed zeros. */
+  private static final double[] DIRECTIONS = { -1, -.5, -0.0, 0, .5, 1 };
+
+  /** Longer than two vectors of the widest species, for the tails. */
+  private static final int MAX_TAIL = 17;
+
+  private final double[] ox, oy, oz, dx, dy, dz;
+
+  public VectorKernelsTest() {
+    List<double[]> rays = new ArrayList<>();
+    for (double x : ORIGINS) {
+      for (double y : ORIGINS) {
+        for (double z : ORIGINS) {
+          for (double[] d : directions()) {
+            rays.add(new double[] { x, y, z, d[0], d[1], d[2] });
+          }
+        }
+      }
+    }
+    int n = rays.size();
+    ox = new double[n];
+    oy = new double[n];
+    oz = new double[n];
+    dx = new double[n];
+    dy = new double[n];
+    dz = new double[n];
+    for (int i = 0; i < n; ++i) {
+      double[] ray = rays.get(i);
+      ox[i] = ray[0];
+      oy[i] = ray[1];
+      oz[i] = ray[2];
+      dx[i] = ray[3];
+      dy[i] = ray[4];
+      dz[i] = ray[5];
+    }
+  }
+
+  /** Nonzero directions built from {@link #DIRECTIONS}, including axis-aligned ones. */
+  private static List<double[]> directions() {
+    List<double[]> directions = new ArrayList<>();
+    for (double x : DIRECTIONS) {
+      for (double y : DIRECTIONS) {
+        for (double z : DIRECTIONS) {
+          if (x != 0 || y != 0 || z != 0) {
+            directions.add(new double[] { x, y, z });
+          }
+        }
+      }
+    }
+    return directions;
+  }
+
+  @Test public void unitBox() {
+    checkUnitBox(ox.length);
+  }
+
+  @Test public void unitBoxPartialVectors() {
+    for (int count = 0; count <= MAX_TAIL; ++count) {
+      checkUnitBox(count);
+    }
+  }
+
+  private void checkUnitBox(int count) {
+    double[] near = new double[count];
+    double[] far = new double[count];
+    double[] near2 = new double[count];
+    double[] far2 = new double[count];
+    ScalarKernels.unitBox(ox, oy, oz, dx, dy, dz, near, far, 0, count);
+    VectorKernels.unitBox(ox, oy, oz, dx, dy, dz, near2, far2, count);
+    for (int i = 0; i < count; ++i) {
+      if (!identical(near[i], near2[i]) || !identical(far[i], far2[i])) {
+        fail(String.format("Slab test mismatch for %s (batch of %d): scalar (%s, %s), "
+            + "SIMD (%s, %s)", ray(i), count, near[i], far[i], near2[i], far2[i]));
+      }
+    }
+  }
+
+  @Test public void quads() {
+    PackedQuads packed = boxAndInteriorQuads();
+    for (int count = 1; count <= packed.size; ++count) {
+      for (int first = 0; first + count <= packed.size; first += count) {
+        checkQuads(packed, first, count);
+      }
+    }
+  }
+
+  /**
+   * The six faces of the unit box, so that the origins lie on quad planes,
+   * followed by quads inside the box.
+   */
+  private static PackedQuads boxAndInteriorQuads() {
+    PackedQuads packed = new PackedQuads(MAX_TAIL);
+    Vector4 uv = new Vector4(0, 1, 0, 1);
+    int i = 0;
+    packed.set(i++, new Vector3(1, 0, 0), new Vector3(0, 0, 0), new Vector3(1, 1, 0), uv);
+    packed.set(i++, new Vector3(0, 0, 1), new Vector3(1, 0, 1), new Vector3(0, 1, 1), uv);
+    packed.set(i++, new Vector3(0, 0, 0), new Vector3(0, 0, 1), new Vector3(0, 1, 0), uv);
+    packed.set(i++, new Vector3(1, 0, 1), new Vector3(1, 0, 0), new Vector3(1, 1, 1), uv);
+    packed.set(i++, new Vector3(0, 1, 1), new Vector3(1, 1, 1), new Vector3(0, 1, 0), uv);
+    packed.set(i++, new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(0, 0, 1), uv);
+    for (; i < packed.size; ++i) {
+      double s = i / (double) packed.size;
+      packed.set(i, new Vector3(s, .25, .5), new Vector3(s, .25, 0),
+          new Vector3(1 - s, .75, .5), new Vector4(.25, .75, 0, s));
+    }
+    return packed;
+  }
+
+  private void checkQuads(PackedQuads packed, int first, int count) {
+    double[] t = new double[count];
+    double[] u = new double[count];
+    double[] v = new double[count];
+    double[] t2 = new double[count];
+    double[] u2 = new double[count];
+    double[] v2 = new double[count];
+    for (int i = 0; i < ox.length; ++i) {
+      ScalarKernels.quads(packed, first, 0, count, ox[i], oy[i], oz[i], dx[i], dy[i], dz[i],
+          t, u, v);
+      VectorKernels.quads(packed, first, count, ox[i], oy[i], oz[i], dx[i], dy[i], dz[i],
+          t2, u2, v2);
+      for (int j = 0; j < count; ++j) {
+        boolean hit = t[j] != Double.POSITIVE_INFINITY;
+        if (!identical(t[j], t2[j])
+            || (hit && (!identical(u[j], u2[j]) || !identical(v[j], v2[j])))) {
+          fail(String.format("Quad test mismatch for %s, quad %d: scalar (%s, %s, %s), "
+              + "SIMD (%s, %s, %s)", ray(i), first + j, t[j], u[j], v[j], t2[j], u2[j], v2[j]));
+        }
+      }
+    }
+  }
+
+  private String ray(int i) {
+    return String.format("ray %d (%s, %s, %s) -> (%s, %s, %s)", i, ox[i], oy[i], oz[i],
+        dx[i], dy[i], dz[i]);
+  }
+
+  private static boolean identical(double a, double b) {
+    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+  }
+}